@@ -16,7 +16,10 @@
 
 package com.digitalascent.core.aws.s3;
 
+import com.digitalascent.core.base.collect.AdaptiveBatchSettings;
+import com.digitalascent.core.base.collect.BatchStreamListener;
 import com.digitalascent.core.base.collect.ContinuationTokenSpliterator;
+import com.digitalascent.core.base.collect.PageSizeHintedResponseSource;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.ListMultipartUploadsRequest;
 import software.amazon.awssdk.services.s3.model.ListMultipartUploadsResponse;
@@ -29,7 +32,11 @@ import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.ListPartsRequest;
 import software.amazon.awssdk.services.s3.model.ListPartsResponse;
 
+import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -40,70 +47,156 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public final class S3StreamAsyncClient {
     private final S3AsyncClient s3AsyncClient;
     private final int queueSize;
+    private final AdaptiveBatchSettings adaptiveSettings;
+    private final Supplier<? extends BatchStreamListener> listenerFactory;
 
     public S3StreamAsyncClient(S3AsyncClient s3AsyncClient) {
         this( s3AsyncClient,5 );
     }
 
     public S3StreamAsyncClient(S3AsyncClient s3AsyncClient, int queueSize) {
+        this(s3AsyncClient, queueSize, null);
+    }
+
+    /**
+     * @param s3AsyncClient   client to make requests with
+     * @param queueSize       maximum number of outstanding responses per listing
+     * @param listenerFactory if provided, called once per listing (other than listings given their own listener) for a
+     *                        listener to notify of that listing's response latencies and sizes, queueing and stalls,
+     *                        e.g. one reporting to application-wide metrics; to read a listing's own
+     *                        {@code BatchStreamMetrics}, pass it to that listing's listener overload instead
+     */
+    public S3StreamAsyncClient(S3AsyncClient s3AsyncClient, int queueSize, @Nullable Supplier<? extends BatchStreamListener> listenerFactory) {
+        this(s3AsyncClient, queueSize, null, listenerFactory);
+    }
+
+    /**
+     * Create a client whose listings adapt the number of outstanding responses, and the page size requested (max keys,
+     * parts or uploads), to how quickly each listing is consumed, as for
+     * {@link ContinuationTokenSpliterator#ContinuationTokenSpliterator(PageSizeHintedResponseSource, AdaptiveBatchSettings, BatchStreamListener, ToIntFunction)};
+     * the requested page size replaces any maximum set on a listing's request.
+     *
+     * @param s3AsyncClient    client to make requests with
+     * @param adaptiveSettings bounds for the number of outstanding responses per listing and the requested page size
+     *                         (S3 returns at most 1000 elements per response)
+     * @param listenerFactory  if provided, called once per listing (other than listings given their own listener) for a
+     *                         listener to notify of that listing's response latencies and sizes, queueing and stalls
+     */
+    public S3StreamAsyncClient(S3AsyncClient s3AsyncClient, AdaptiveBatchSettings adaptiveSettings, @Nullable Supplier<? extends BatchStreamListener> listenerFactory) {
+        this(s3AsyncClient, checkNotNull(adaptiveSettings, "adaptiveSettings is required").getMaxQueueSize(), adaptiveSettings, listenerFactory);
+    }
+
+    private S3StreamAsyncClient(S3AsyncClient s3AsyncClient, int queueSize, @Nullable AdaptiveBatchSettings adaptiveSettings,
+                                @Nullable Supplier<? extends BatchStreamListener> listenerFactory) {
         this.s3AsyncClient = checkNotNull(s3AsyncClient, "s3AsyncClient is required");
         checkArgument(queueSize > 0, "queueSize > 0 : %s", queueSize);
         this.queueSize = queueSize;
+        this.adaptiveSettings = adaptiveSettings;
+        this.listenerFactory = listenerFactory;
     }
 
     public S3AsyncClient s3AsyncClient() {
         return s3AsyncClient;
     }
 
-    public Stream<ListPartsResponse> listParts(ListPartsRequest.Builder requestBuilder ) {
+    public Stream<ListPartsResponse> listParts(ListPartsRequest.Builder requestBuilder) {
+        return listParts(requestBuilder, defaultListener());
+    }
+
+    /**
+     * @param requestBuilder request to list with; its continuation token (and when adapting, its maximum page size) is
+     *                       set for each request
+     * @param listener       if provided, notified of this listing's response latencies and sizes, queueing and stalls
+     * @return stream of responses; closing the stream stops further requests
+     */
+    public Stream<ListPartsResponse> listParts(ListPartsRequest.Builder requestBuilder, @Nullable BatchStreamListener listener) {
         checkNotNull(requestBuilder, "requestBuilder is required");
 
-        return StreamSupport.stream(new ContinuationTokenSpliterator<>((ListPartsResponse previousResponse) -> {
+        return responseStream((ListPartsResponse previousResponse, int pageSizeHint) -> {
             if (previousResponse != null && !previousResponse.isTruncated()) {
                 // response is complete, no need to make further requests
                 return null;
             }
             // set new continuation token (possibly null, in the case of the first request)
             requestBuilder.partNumberMarker(previousResponse != null ? previousResponse.nextPartNumberMarker() : null );
+            if (adaptiveSettings != null) {
+                requestBuilder.maxParts(pageSizeHint);
+            }
 
             return s3AsyncClient.listParts(requestBuilder.build());
-        }, queueSize), false).map(rethrowingFunction(CompletableFuture::get));
+        }, listener, response -> size(response.parts()));
+    }
+
+    public Stream<ListObjectsResponse> listObjects(ListObjectsRequest.Builder requestBuilder) {
+        return listObjects(requestBuilder, defaultListener());
     }
 
-    public Stream<ListObjectsResponse> listObjects(ListObjectsRequest.Builder requestBuilder ) {
+    /**
+     * @param requestBuilder request to list with; its continuation token (and when adapting, its maximum page size) is
+     *                       set for each request
+     * @param listener       if provided, notified of this listing's response latencies and sizes, queueing and stalls
+     * @return stream of responses; closing the stream stops further requests
+     */
+    public Stream<ListObjectsResponse> listObjects(ListObjectsRequest.Builder requestBuilder, @Nullable BatchStreamListener listener) {
         checkNotNull(requestBuilder, "requestBuilder is required");
 
-        return StreamSupport.stream(new ContinuationTokenSpliterator<>((ListObjectsResponse previousResponse) -> {
+        return responseStream((ListObjectsResponse previousResponse, int pageSizeHint) -> {
             if (previousResponse != null && !previousResponse.isTruncated()) {
                 // response is complete, no need to make further requests
                 return null;
             }
             // set new continuation token (possibly null, in the case of the first request)
             requestBuilder.marker(previousResponse != null ? previousResponse.nextMarker() : null );
+            if (adaptiveSettings != null) {
+                requestBuilder.maxKeys(pageSizeHint);
+            }
 
             return s3AsyncClient.listObjects(requestBuilder.build());
-        }, queueSize), false).map(rethrowingFunction(CompletableFuture::get));
+        }, listener, response -> size(response.contents()));
+    }
+
+    public Stream<ListObjectVersionsResponse> listObjectVersions(ListObjectVersionsRequest.Builder requestBuilder) {
+        return listObjectVersions(requestBuilder, defaultListener());
     }
 
-    public Stream<ListObjectVersionsResponse> listObjectVersions(ListObjectVersionsRequest.Builder requestBuilder ) {
+    /**
+     * @param requestBuilder request to list with; its continuation token (and when adapting, its maximum page size) is
+     *                       set for each request
+     * @param listener       if provided, notified of this listing's response latencies and sizes, queueing and stalls
+     * @return stream of responses; closing the stream stops further requests
+     */
+    public Stream<ListObjectVersionsResponse> listObjectVersions(ListObjectVersionsRequest.Builder requestBuilder, @Nullable BatchStreamListener listener) {
         checkNotNull(requestBuilder, "requestBuilder is required");
 
-        return StreamSupport.stream(new ContinuationTokenSpliterator<>((ListObjectVersionsResponse previousResponse) -> {
+        return responseStream((ListObjectVersionsResponse previousResponse, int pageSizeHint) -> {
             if (previousResponse != null && !previousResponse.isTruncated()) {
                 // response is complete, no need to make further requests
                 return null;
             }
             // set new continuation token (possibly null, in the case of the first request)
             requestBuilder.keyMarker(previousResponse != null ? previousResponse.nextKeyMarker() : null );
+            if (adaptiveSettings != null) {
+                requestBuilder.maxKeys(pageSizeHint);
+            }
 
             return s3AsyncClient.listObjectVersions(requestBuilder.build());
-        }, queueSize), false).map(rethrowingFunction(CompletableFuture::get));
+        }, listener, response -> size(response.versions()) + size(response.deleteMarkers()));
+    }
+
+    public Stream<ListMultipartUploadsResponse> listMultipartUploads(ListMultipartUploadsRequest.Builder requestBuilder) {
+        return listMultipartUploads(requestBuilder, defaultListener());
     }
 
-    public Stream<ListMultipartUploadsResponse> listMultipartUploads(ListMultipartUploadsRequest.Builder requestBuilder ) {
+    /**
+     * @param requestBuilder request to list with; its continuation token (and when adapting, its maximum page size) is
+     *                       set for each request
+     * @param listener       if provided, notified of this listing's response latencies and sizes, queueing and stalls
+     * @return stream of responses; closing the stream stops further requests
+     */
+    public Stream<ListMultipartUploadsResponse> listMultipartUploads(ListMultipartUploadsRequest.Builder requestBuilder, @Nullable BatchStreamListener listener) {
         checkNotNull(requestBuilder, "requestBuilder is required");
 
-        return StreamSupport.stream(new ContinuationTokenSpliterator<>((ListMultipartUploadsResponse previousResponse) -> {
+        return responseStream((ListMultipartUploadsResponse previousResponse, int pageSizeHint) -> {
             if (previousResponse != null && !previousResponse.isTruncated()) {
                 // response is complete, no need to make further requests
                 return null;
@@ -111,23 +204,62 @@ public final class S3StreamAsyncClient {
             // set new continuation token (possibly null, in the case of the first request)
             requestBuilder.uploadIdMarker( previousResponse != null ? previousResponse.nextUploadIdMarker() : null );
             requestBuilder.keyMarker(previousResponse != null ? previousResponse.nextKeyMarker() : null );
+            if (adaptiveSettings != null) {
+                requestBuilder.maxUploads(pageSizeHint);
+            }
 
             return s3AsyncClient.listMultipartUploads(requestBuilder.build());
-        }, queueSize), false).map(rethrowingFunction(CompletableFuture::get));
+        }, listener, response -> size(response.uploads()));
     }
 
     public Stream<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request.Builder requestBuilder) {
+        return listObjectsV2(requestBuilder, defaultListener());
+    }
+
+    /**
+     * @param requestBuilder request to list with; its continuation token (and when adapting, its maximum page size) is
+     *                       set for each request
+     * @param listener       if provided, notified of this listing's response latencies and sizes, queueing and stalls
+     * @return stream of responses; closing the stream stops further requests
+     */
+    public Stream<ListObjectsV2Response> listObjectsV2(ListObjectsV2Request.Builder requestBuilder, @Nullable BatchStreamListener listener) {
         checkNotNull(requestBuilder, "requestBuilder is required");
 
-        return StreamSupport.stream(new ContinuationTokenSpliterator<>((ListObjectsV2Response previousResponse) -> {
+        return responseStream((ListObjectsV2Response previousResponse, int pageSizeHint) -> {
             if (previousResponse != null && !previousResponse.isTruncated()) {
                 // response is complete, no need to make further requests
                 return null;
             }
             // set new continuation token (possibly null, in the case of the first request)
             requestBuilder.continuationToken(previousResponse != null ? previousResponse.nextContinuationToken() : null );
+            if (adaptiveSettings != null) {
+                requestBuilder.maxKeys(pageSizeHint);
+            }
 
             return s3AsyncClient.listObjectsV2(requestBuilder.build());
-        }, queueSize), false).map(rethrowingFunction(CompletableFuture::get));
+        }, listener, response -> size(response.contents()));
+    }
+
+    @Nullable
+    private BatchStreamListener defaultListener() {
+        return listenerFactory == null ? null : listenerFactory.get();
+    }
+
+    private static int size(@Nullable Collection<?> elements) {
+        return elements == null ? 0 : elements.size();
+    }
+
+    /**
+     * Stream of responses from the provided source, which is given a page size hint when adapting; closing the stream
+     * stops further requests
+     */
+    private <ResponseT> Stream<ResponseT> responseStream(PageSizeHintedResponseSource<ResponseT> responseSource,
+                                                         @Nullable BatchStreamListener listener, ToIntFunction<? super ResponseT> responseSize) {
+        ContinuationTokenSpliterator<ResponseT> spliterator = adaptiveSettings == null
+                ? new ContinuationTokenSpliterator<>(previousResponse -> responseSource.invoke(previousResponse, 0), queueSize, null, 0, listener, responseSize)
+                : new ContinuationTokenSpliterator<>(responseSource, adaptiveSettings, listener, responseSize);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(spliterator::close)
+                .map(rethrowingFunction(CompletableFuture::get));
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Base subscription that tracks subscriber demand and serializes signals to the subscriber; all emission happens
+ * in {@link #drain()}, which is only ever executed by one thread at a time (whichever thread requested, or completed
+ * a fetch, first).  Work arriving while another thread is draining is picked up by that thread rather than recursing.
+ *
+ * @param <T> type of elements signalled to the subscriber
+ */
+abstract class AbstractDemandSubscription<T> implements Subscription {
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicReference<Throwable> invalidRequest = new AtomicReference<>();
+    private final Subscriber<? super T> subscriber;
+    private volatile boolean cancelled;
+    private boolean done;
+
+    AbstractDemandSubscription(Subscriber<? super T> subscriber) {
+        this.subscriber = checkNotNull(subscriber, "subscriber is required");
+    }
+
+    @Override
+    public final void request(long n) {
+        if (n <= 0) {
+            // Reactive Streams rule 3.9; signalled from drain(), serialized with any other signal (rule 1.3)
+            invalidRequest.compareAndSet(null, new IllegalArgumentException("Reactive Streams rule 3.9: request must be > 0 : " + n));
+            cancelled = true;
+            drain();
+            return;
+        }
+        long current;
+        long next;
+        do {
+            current = requested.get();
+            if (current == Long.MAX_VALUE) {
+                break;
+            }
+            next = current + n;
+            if (next < 0) {
+                // overflow; treat as unbounded demand
+                next = Long.MAX_VALUE;
+            }
+        } while (!requested.compareAndSet(current, next));
+        drain();
+    }
+
+    @Override
+    public final void cancel() {
+        cancelled = true;
+        drain();
+    }
+
+    /**
+     * Runs {@link #drainLoop()} if no other thread is currently doing so; otherwise flags the active thread to loop again.
+     */
+    final void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (cancelled) {
+                if (!done) {
+                    done = true;
+                    onCancel();
+                    Throwable throwable = invalidRequest.get();
+                    if (throwable != null) {
+                        subscriber.onError(throwable);
+                    }
+                }
+            } else if (!done) {
+                drainLoop();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Emit as many elements as current demand and available data allow, using {@link #emit(Object)}, {@link #complete()}
+     * and {@link #error(Throwable)}.  Invoked only from {@link #drain()}.
+     */
+    abstract void drainLoop();
+
+    /**
+     * Release any resources held by this subscription; invoked at most once, from {@link #drain()}, after cancellation.
+     */
+    abstract void onCancel();
+
+    final boolean hasDemand() {
+        return requested.get() > 0 && !cancelled;
+    }
+
+    final boolean isCancelled() {
+        return cancelled;
+    }
+
+    final void emit(T element) {
+        if (requested.get() != Long.MAX_VALUE) {
+            requested.decrementAndGet();
+        }
+        subscriber.onNext(element);
+    }
+
+    final void complete() {
+        done = true;
+        subscriber.onComplete();
+    }
+
+    final void error(Throwable throwable) {
+        done = true;
+        subscriber.onError(throwable);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.MoreObjects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounds for adaptive batch loading: the range of the number of batches queued ahead of the consumer, and of the
+ * page size hint passed to the batch supplier (or response source).
+ *
+ * @see MoreStreams#adaptiveBatchLoadingStream(PageSizeHintedBatchSupplier, AdaptiveBatchSettings)
+ * @see ContinuationTokenSpliterator#ContinuationTokenSpliterator(PageSizeHintedResponseSource, AdaptiveBatchSettings, BatchStreamListener, java.util.function.ToIntFunction)
+ */
+public final class AdaptiveBatchSettings {
+    private final int minQueueSize;
+    private final int maxQueueSize;
+    private final int minPageSize;
+    private final int maxPageSize;
+
+    /**
+     * @param minQueueSize minimum number of batches to allow to be queued; also the initial queue size
+     * @param maxQueueSize maximum number of batches to allow to be queued
+     * @param minPageSize  minimum page size hint; also the initial page size hint
+     * @param maxPageSize  maximum page size hint (e.g. the source API's maximum page size)
+     */
+    public AdaptiveBatchSettings(int minQueueSize, int maxQueueSize, int minPageSize, int maxPageSize) {
+        checkArgument(minQueueSize > 0, "minQueueSize must be > 0 : %s", minQueueSize);
+        checkArgument(maxQueueSize >= minQueueSize, "maxQueueSize must be >= minQueueSize : %s < %s", maxQueueSize, minQueueSize);
+        checkArgument(minPageSize > 0, "minPageSize must be > 0 : %s", minPageSize);
+        checkArgument(maxPageSize >= minPageSize, "maxPageSize must be >= minPageSize : %s < %s", maxPageSize, minPageSize);
+        this.minQueueSize = minQueueSize;
+        this.maxQueueSize = maxQueueSize;
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    public int getMinQueueSize() {
+        return minQueueSize;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public int getMinPageSize() {
+        return minPageSize;
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("minQueueSize", minQueueSize)
+                .add("maxQueueSize", maxQueueSize)
+                .add("minPageSize", minPageSize)
+                .add("maxPageSize", maxPageSize)
+                .toString();
+    }
+}
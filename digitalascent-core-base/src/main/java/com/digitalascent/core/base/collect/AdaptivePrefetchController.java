@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adapts the queue limit and page size hint of a queued batch stream to the observed producer and consumer rates.
+ * <ul>
+ * <li>Queue limit: enough batches to cover one fetch, i.e. the (smoothed) fetch latency divided by the (smoothed) time
+ * the consumer spends on each batch, plus one.</li>
+ * <li>Page size: doubled when the consumer has to wait for a batch (larger pages amortize per-request latency),
+ * reduced by a quarter when the producer has to wait for queue space (smaller pages hold less memory).</li>
+ * </ul>
+ * Both are kept within the bounds of the provided settings.
+ */
+final class AdaptivePrefetchController {
+    // weight of the newest sample in the moving averages
+    private static final double SMOOTHING = 0.3;
+
+    private final AdaptiveBatchSettings settings;
+
+    private volatile int queueLimit;
+    private volatile int pageSize;
+
+    // guarded by this
+    private double averageFetchNanos;
+    private double averageConsumeNanos;
+    private long lastTakeNanos;
+
+    AdaptivePrefetchController(AdaptiveBatchSettings settings) {
+        this.settings = checkNotNull(settings, "settings is required");
+        this.queueLimit = settings.getMinQueueSize();
+        this.pageSize = settings.getMinPageSize();
+    }
+
+    AdaptiveBatchSettings getSettings() {
+        return settings;
+    }
+
+    int getQueueLimit() {
+        return queueLimit;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Record the latency of fetching a batch
+     */
+    synchronized void onFetch(long fetchNanos) {
+        averageFetchNanos = average(averageFetchNanos, fetchNanos);
+        updateQueueLimit();
+    }
+
+    /**
+     * Record that the producer had to wait for queue space
+     */
+    synchronized void onProducerBlocked() {
+        pageSize = Math.max(settings.getMinPageSize(), pageSize - pageSize / 4);
+    }
+
+    /**
+     * Record that the consumer took a batch, having waited the provided time for it
+     */
+    synchronized void onConsumerTake(long waitNanos) {
+        long now = System.nanoTime();
+        if (lastTakeNanos != 0) {
+            // time spent consuming the previous batch, excluding time waiting for this one
+            averageConsumeNanos = average(averageConsumeNanos, Math.max(0, now - lastTakeNanos - waitNanos));
+        }
+        lastTakeNanos = now;
+
+        if (waitNanos > 0) {
+            // consumer is starved
+            pageSize = (int) Math.min(settings.getMaxPageSize(), 2L * pageSize);
+        }
+        updateQueueLimit();
+    }
+
+    private void updateQueueLimit() {
+        if (averageFetchNanos == 0 || averageConsumeNanos == 0) {
+            return;
+        }
+        double batchesPerFetch = Math.ceil(averageFetchNanos / averageConsumeNanos) + 1;
+        queueLimit = (int) Math.max(settings.getMinQueueSize(), Math.min(settings.getMaxQueueSize(), batchesPerFetch));
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.VerifyException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Spliterator over batches loaded from an AsyncBatchSupplier.  Up to <b>prefetch</b> completed batches are buffered ahead
+ * of the consumer; each fetch is chained from the completion of the previous one, so no thread is dedicated to (or blocked by)
+ * loading batches.  Only the consumer blocks, when no completed batch is available.
+ * <p>
+ * Closing the spliterator stops fetching batches; it is closed when the owning stream is closed.
+ * </p>
+ *
+ * @param <T> type of elements in the batches
+ */
+final class AsyncBatchSpliterator<T> implements Spliterator<Iterable<T>> {
+    private final AsyncBatchSupplier<T> batchSupplier;
+    private final int prefetch;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition batchAvailable = lock.newCondition();
+    private final AtomicInteger fetchWip = new AtomicInteger();
+
+    // guarded by lock
+    private final Queue<Iterable<T>> completedBatches = new ArrayDeque<>();
+    private boolean fetchInFlight;
+    private CompletableFuture<Batch<T>> inFlightFuture;
+    private boolean closed;
+    private boolean lastBatchFetched;
+    private String nextToken;
+    private Throwable failure;
+
+    private boolean started;
+
+    AsyncBatchSpliterator(AsyncBatchSupplier<T> batchSupplier, int prefetch) {
+        this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+        checkArgument(prefetch > 0, "prefetch must be > 0 : %s", prefetch);
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Iterable<T>> action) {
+        if (!started) {
+            // only make the initial request when initially advancing
+            started = true;
+            fetchIfRequired();
+        }
+
+        Iterable<T> batch;
+        lock.lock();
+        try {
+            while (completedBatches.isEmpty() && failure == null && !closed && !(lastBatchFetched && !fetchInFlight)) {
+                batchAvailable.awaitUninterruptibly();
+            }
+            batch = completedBatches.poll();
+            if (batch == null && failure != null) {
+                // batches completed prior to the failure have been consumed; propagate the failure
+                Throwables.throwIfUnchecked(failure);
+                throw new RuntimeException(failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (batch == null) {
+            return false;
+        }
+
+        // space has been freed in the buffer
+        fetchIfRequired();
+        action.accept(batch);
+        return true;
+    }
+
+    /**
+     * Starts fetching the next batch if one isn't in flight and the buffer has space.  Re-entrant calls (from a batch
+     * future that completes synchronously) are handled by looping in the outermost call, rather than recursing.
+     */
+    private void fetchIfRequired() {
+        if (fetchWip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            String token = null;
+            boolean fetch = false;
+            lock.lock();
+            try {
+                if (!fetchInFlight && !lastBatchFetched && failure == null && !closed && completedBatches.size() < prefetch) {
+                    fetchInFlight = true;
+                    token = nextToken;
+                    fetch = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (fetch) {
+                fetch(token);
+            }
+            missed = fetchWip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void fetch(@Nullable String token) {
+        CompletableFuture<Batch<T>> batchFuture;
+        try {
+            batchFuture = batchSupplier.nextBatch(token);
+            if (batchFuture == null) {
+                throw new VerifyException(String.format("Null batch future returned from %s", batchSupplier.getClass()));
+            }
+        } catch (RuntimeException e) {
+            onBatchComplete(token, null, e);
+            return;
+        }
+        boolean closedDuringFetch;
+        lock.lock();
+        try {
+            closedDuringFetch = closed;
+            if (!closedDuringFetch) {
+                inFlightFuture = batchFuture;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (closedDuringFetch) {
+            batchFuture.cancel(false);
+            return;
+        }
+        batchFuture.whenComplete((batch, exception) -> onBatchComplete(token, batch, exception));
+    }
+
+    /**
+     * Stop fetching batches, cancelling any in-flight fetch and releasing buffered batches
+     */
+    void close() {
+        CompletableFuture<Batch<T>> future;
+        lock.lock();
+        try {
+            closed = true;
+            completedBatches.clear();
+            future = inFlightFuture;
+            inFlightFuture = null;
+            batchAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void onBatchComplete(@Nullable String token, @Nullable Batch<T> batch, @Nullable Throwable exception) {
+        lock.lock();
+        try {
+            fetchInFlight = false;
+            inFlightFuture = null;
+            if (closed) {
+                // batch is no longer required
+                return;
+            }
+            if (exception != null) {
+                failure = exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+            } else {
+                try {
+                    BatchChains.verifyBatch(batch, batchSupplier.getClass());
+                    BatchChains.verifyNextToken(token, batch.getNextToken());
+                    completedBatches.add(batch.getIterable());
+                    nextToken = batch.getNextToken();
+                    lastBatchFetched = nextToken == null;
+                } catch (VerifyException e) {
+                    failure = e;
+                }
+            }
+            batchAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        // chain the next fetch off this completion (no-op if closed)
+        fetchIfRequired();
+    }
+
+    @Override
+    public Spliterator<Iterable<T>> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.NONNULL | Spliterator.ORDERED | Spliterator.IMMUTABLE;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+
+@FunctionalInterface
+public interface AsyncBatchSupplier<T> {
+    /**
+     * Asynchronously retrieve next batch of items
+     * <p>
+     * Example usage:
+     * <pre>
+     * return MoreStreams.asyncBatchLoadingStream(nextBatchToken -> {
+     *      builder.continuationToken(nextBatchToken);
+     *      return s3AsyncClient.listObjectsV2(builder.build())
+     *              .thenApply(response -> new Batch<>(response.nextContinuationToken(), response.contents()));
+     * }, 5);
+     * </pre>
+     *
+     * @param nextBatchToken Token to request next batch of data (may be null)
+     * @return future completed with the Batch object representing retrieved batch; use Batch.emptyBatch() to represent empty batch; must not be null
+     */
+    CompletableFuture<Batch<T>> nextBatch(@Nullable String nextBatchToken);
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Verify.verify;
+
+/**
+ * Spliterator mapping upstream elements to asynchronous results, keeping up to <b>maxInFlight</b> results outstanding;
+ * upstream elements are only pulled as results are consumed.  Results are provided in upstream order, or in the order
+ * they complete.
+ *
+ * @param <T> type of upstream elements
+ * @param <R> type of results
+ */
+final class AsyncMapSpliterator<T, R> implements Spliterator<R> {
+    private final Spliterator<T> upstream;
+    private final Function<? super T, ? extends CompletableFuture<R>> mapper;
+    private final int maxInFlight;
+    private final boolean ordered;
+
+    // in upstream order
+    private final Deque<CompletableFuture<R>> inFlight = new ArrayDeque<>();
+    // unordered results, as they complete
+    private final BlockingQueue<CompletableFuture<R>> completed = new LinkedBlockingQueue<>();
+    private boolean upstreamExhausted;
+
+    AsyncMapSpliterator(Spliterator<T> upstream, Function<? super T, ? extends CompletableFuture<R>> mapper, int maxInFlight, boolean ordered) {
+        this.upstream = checkNotNull(upstream, "upstream is required");
+        this.mapper = checkNotNull(mapper, "mapper is required");
+        checkArgument(maxInFlight > 0, "maxInFlight must be > 0 : %s", maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super R> action) {
+        checkNotNull(action, "action is required");
+        while (!upstreamExhausted && inFlight.size() < maxInFlight) {
+            upstreamExhausted = !upstream.tryAdvance(this::start);
+        }
+        if (inFlight.isEmpty()) {
+            return false;
+        }
+
+        CompletableFuture<R> result;
+        if (ordered) {
+            result = inFlight.poll();
+        } else {
+            result = Uninterruptibles.takeUninterruptibly(completed);
+            inFlight.remove(result);
+        }
+        action.accept(getResult(result));
+        return true;
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void start(T element) {
+        CompletableFuture<R> result = mapper.apply(element);
+        verify(result != null, "Null future returned from %s for %s", mapper.getClass(), element);
+        inFlight.add(result);
+        if (!ordered) {
+            result.whenComplete((value, exception) -> completed.add(result));
+        }
+    }
+
+    private static <R> R getResult(Future<R> result) {
+        try {
+            return Uninterruptibles.getUninterruptibly(result);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Cancel results that have not been consumed
+     */
+    void close() {
+        inFlight.forEach(result -> result.cancel(false));
+        inFlight.clear();
+        upstreamExhausted = true;
+    }
+
+    @Override
+    public Spliterator<R> trySplit() {
+        // upstream order governs the results, and maxInFlight provides the concurrency
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (upstreamExhausted) {
+            return inFlight.size();
+        }
+        long upstreamSize = upstream.estimateSize();
+        return upstreamSize == Long.MAX_VALUE ? upstreamSize : upstreamSize + inFlight.size();
+    }
+
+    @Override
+    public int characteristics() {
+        return ordered ? Spliterator.ORDERED : 0;
+    }
+}
@@ -20,6 +20,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -27,12 +29,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Represents a batch of elements that can be iterated over.  Contains the 'next' token from the batch provider for loading
  * the next batch; may be null if there is no next batch.
+ * <p>
+ * Batches of {@link Collection}s retain the collection's size, allowing streams of the batch's elements to be sized and split.
+ * </p>
  *
  * @param <T> type of elements in the batch
  */
 public final class Batch<T> {
+    static final int UNKNOWN_SIZE = -1;
+
     private final String nextToken;
     private final Iterable<T> iterable;
+    private final int size;
 
     public static <T> Batch<T> emptyBatch() {
         return new Batch<>(null, ImmutableList.of());
@@ -40,7 +48,16 @@ public final class Batch<T> {
 
     public Batch(@Nullable String nextToken, Iterable<T> iterable) {
         this.nextToken = nextToken;
-        this.iterable = Iterables.unmodifiableIterable(iterable);
+        checkNotNull(iterable, "iterable is required");
+        if (iterable instanceof Collection) {
+            // retain the collection's (sized, splittable) spliterator
+            Collection<T> collection = (Collection<T>) iterable;
+            this.iterable = Collections.unmodifiableCollection(collection);
+            this.size = collection.size();
+        } else {
+            this.iterable = Iterables.unmodifiableIterable(iterable);
+            this.size = UNKNOWN_SIZE;
+        }
     }
 
     String getNextToken() {
@@ -50,4 +67,11 @@ public final class Batch<T> {
     Iterable<T> getIterable() {
         return iterable;
     }
+
+    /**
+     * @return number of elements in the batch, or {@link #UNKNOWN_SIZE} if the batch is not a {@link Collection}
+     */
+    int getSize() {
+        return size;
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Verify.verify;
+
+/**
+ * Cache of batches keyed by (source id, batch token), shared by caching batch suppliers created with
+ * {@link BatchSuppliers#caching(BatchSupplier, String, BatchCache)}.  Batches expire a fixed time after being loaded,
+ * and the least-recently used batches are evicted once the total weight of cached batches exceeds the maximum weight.
+ */
+public final class BatchCache {
+    private final Cache<BatchKey, Batch<?>> cache;
+
+    /**
+     * Create a cache where each batch is weighed by its number of elements
+     *
+     * @param expireAfterWrite duration after loading that a batch expires
+     * @param unit             unit of expireAfterWrite
+     * @param maximumWeight    maximum total number of elements across all cached batches
+     * @return BatchCache
+     */
+    public static BatchCache create(long expireAfterWrite, TimeUnit unit, long maximumWeight) {
+        return create(expireAfterWrite, unit, maximumWeight, Iterables::size);
+    }
+
+    /**
+     * Create a cache where each batch is weighed by the provided weigher (e.g. estimated bytes), applied to the batch's
+     * elements
+     *
+     * @param expireAfterWrite duration after loading that a batch expires
+     * @param unit             unit of expireAfterWrite
+     * @param maximumWeight    maximum total weight across all cached batches
+     * @param weigher          computes the weight of a batch's elements; must be >= 0
+     * @return BatchCache
+     */
+    public static BatchCache create(long expireAfterWrite, TimeUnit unit, long maximumWeight, ToIntFunction<? super Iterable<?>> weigher) {
+        checkArgument(expireAfterWrite > 0, "expireAfterWrite must be > 0 : %s", expireAfterWrite);
+        checkNotNull(unit, "unit is required");
+        checkArgument(maximumWeight >= 0, "maximumWeight must be >= 0 : %s", maximumWeight);
+        checkNotNull(weigher, "weigher is required");
+
+        return new BatchCache(CacheBuilder.newBuilder()
+                .expireAfterWrite(expireAfterWrite, unit)
+                .maximumWeight(maximumWeight)
+                .weigher((BatchKey key, Batch<?> batch) -> weigher.applyAsInt(batch.getIterable()))
+                .recordStats()
+                .build());
+    }
+
+    private BatchCache(Cache<BatchKey, Batch<?>> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return statistics (hits, misses, evictions) since this cache was created
+     */
+    public BatchCacheStats stats() {
+        CacheStats stats = cache.stats();
+        return new BatchCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.loadExceptionCount(), cache.size());
+    }
+
+    /**
+     * Discard all cached batches for a source
+     *
+     * @param sourceId id of the source
+     */
+    public void invalidate(String sourceId) {
+        checkNotNull(sourceId, "sourceId is required");
+        cache.asMap().keySet().removeIf(key -> key.sourceId.equals(sourceId));
+    }
+
+    /**
+     * Discard all cached batches
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> Batch<T> get(String sourceId, @Nullable String batchToken, BatchSupplier<T> batchSupplier) {
+        try {
+            return (Batch<T>) cache.get(new BatchKey(sourceId, batchToken), () -> {
+                Batch<T> batch = batchSupplier.nextBatch(batchToken);
+                verify(batch != null, "Null batch returned from %s", batchSupplier.getClass());
+
+                // cached batches are iterated repeatedly; take a copy in case the source iterable is single-use
+                return new Batch<>(batch.getNextToken(), ImmutableList.copyOf(batch.getIterable()));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // propagate supplier exception
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static final class BatchKey {
+        private final String sourceId;
+        private final String batchToken;
+
+        BatchKey(String sourceId, @Nullable String batchToken) {
+            this.sourceId = sourceId;
+            this.batchToken = batchToken;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BatchKey that = (BatchKey) o;
+            return sourceId.equals(that.sourceId) && Objects.equals(batchToken, that.batchToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sourceId, batchToken);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Point-in-time statistics for a BatchCache
+ */
+public final class BatchCacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long loadExceptionCount;
+    private final long size;
+
+    BatchCacheStats(long hitCount, long missCount, long evictionCount, long loadExceptionCount, long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.loadExceptionCount = loadExceptionCount;
+        this.size = size;
+    }
+
+    /**
+     * @return number of batches served from the cache
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of batches loaded from the underlying supplier
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return ratio of hits to requests; 1.0 if there have been no requests
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return number of batches evicted due to size or expiry (not including explicit invalidation)
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of batch loads that failed
+     */
+    public long getLoadExceptionCount() {
+        return loadExceptionCount;
+    }
+
+    /**
+     * @return approximate number of batches currently cached
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("hitCount", hitCount)
+                .add("missCount", missCount)
+                .add("evictionCount", evictionCount)
+                .add("loadExceptionCount", loadExceptionCount)
+                .add("size", size)
+                .toString();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+import static com.google.common.base.Verify.verify;
+
+/**
+ * Fetching of chains of batches from a BatchSupplier, where each batch has the token to fetch the next.  Each batch is
+ * verified: the supplier must return a batch, and a batch's next token must differ from the token it was fetched with
+ * (otherwise the same batch would be fetched indefinitely); failures are {@link com.google.common.base.VerifyException}s.
+ * Batches that are not fetched here (completed asynchronously, or primitive batches) are verified with the same checks.
+ */
+final class BatchChains {
+
+    /**
+     * Handler for each batch of a chain
+     *
+     * @param <T> type of element
+     */
+    @FunctionalInterface
+    interface BatchHandler<T> {
+        /**
+         * @param batch the batch fetched
+         * @return true to fetch the next batch (if any), false to stop fetching
+         * @throws InterruptedException if interrupted while handling the batch (e.g. waiting for queue space)
+         */
+        boolean onBatch(Batch<T> batch) throws InterruptedException;
+    }
+
+    /**
+     * Fetch a single batch of a chain
+     *
+     * @param batchSupplier the supplier to fetch from
+     * @param batchToken    token of the batch to fetch; null for the first batch
+     * @param <T>           type of element
+     * @return the verified batch
+     */
+    static <T> Batch<T> fetchBatch(BatchSupplier<T> batchSupplier, @Nullable String batchToken) {
+        Batch<T> batch = verifyBatch(batchSupplier.nextBatch(batchToken), batchSupplier.getClass());
+        verifyNextToken(batchToken, batch.getNextToken());
+        return batch;
+    }
+
+    /**
+     * Verify that a supplier returned a batch, e.g. a batch completed asynchronously or a primitive batch
+     *
+     * @param batch         the batch returned
+     * @param supplierClass class of the supplier, for the failure message
+     * @param <B>           type of batch
+     * @return the batch
+     */
+    static <B> B verifyBatch(@Nullable B batch, Class<?> supplierClass) {
+        verify(batch != null, "Null batch returned from %s", supplierClass);
+        return batch;
+    }
+
+    /**
+     * Verify that a batch's next token differs from the token it was fetched with
+     *
+     * @param batchToken token the batch was fetched with; null for the first batch
+     * @param nextToken  the batch's next token
+     */
+    static void verifyNextToken(@Nullable String batchToken, @Nullable String nextToken) {
+        verify(batchToken == null || !Objects.equals(batchToken, nextToken), "Received the same batch token '%s' for two batches, aborting", batchToken);
+    }
+
+    /**
+     * Fetch the chain of batches from the first batch, passing each to <b>batchHandler</b>, until a batch has no next
+     * token or the handler stops fetching
+     *
+     * @param batchSupplier the supplier to fetch from
+     * @param listener      if provided, notified of each fetch
+     * @param batchHandler  handles each batch as it is fetched
+     * @param <T>           type of element
+     * @throws InterruptedException if the handler is interrupted
+     */
+    static <T> void fetchBatches(BatchSupplier<T> batchSupplier, @Nullable BatchStreamListener listener, BatchHandler<T> batchHandler) throws InterruptedException {
+        String batchToken = null;
+        boolean fetchNext = true;
+        while (fetchNext) {
+            long fetchStart = System.nanoTime();
+            Batch<T> batch = fetchBatch(batchSupplier, batchToken);
+            if (listener != null) {
+                listener.onBatchFetched(batch.getSize(), System.nanoTime() - fetchStart);
+            }
+            batchToken = batch.getNextToken();
+            fetchNext = batchHandler.onBatch(batch) && batchToken != null;
+        }
+    }
+
+    private BatchChains() {
+        throw new AssertionError("Cannot instantiate " + getClass());
+    }
+}
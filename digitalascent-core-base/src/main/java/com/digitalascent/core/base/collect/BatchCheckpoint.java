@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Position within a chain of batches: the token used to request the batch being consumed (null for the first batch)
+ * and the number of elements of that batch that have been consumed.
+ */
+public final class BatchCheckpoint {
+    private final String batchToken;
+    private final long elementOffset;
+
+    public BatchCheckpoint(@Nullable String batchToken, long elementOffset) {
+        checkArgument(elementOffset >= 0, "elementOffset must be >= 0 : %s", elementOffset);
+        this.batchToken = batchToken;
+        this.elementOffset = elementOffset;
+    }
+
+    /**
+     * @return token used to request the batch being consumed; null for the first batch
+     */
+    @Nullable
+    public String getBatchToken() {
+        return batchToken;
+    }
+
+    /**
+     * @return number of elements of the batch that have been consumed
+     */
+    public long getElementOffset() {
+        return elementOffset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        BatchCheckpoint that = (BatchCheckpoint) o;
+        return elementOffset == that.elementOffset && Objects.equals(batchToken, that.batchToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(batchToken, elementOffset);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("batchToken", batchToken)
+                .add("elementOffset", elementOffset)
+                .toString();
+    }
+}
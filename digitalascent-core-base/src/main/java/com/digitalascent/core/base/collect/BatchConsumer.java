@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.List;
+
+/**
+ * Consumes batches of elements grouped by a {@link BatchingSink}, typically with a bulk API call; the counterpart of
+ * {@link BatchSupplier} for write paths.
+ * <p>
+ * Example usage:
+ * <pre>
+ * BatchConsumer&lt;String, DeleteObjectsResult&gt; deleter = keys -&gt; s3.deleteObjects(new DeleteObjectsRequest(bucket)
+ *      .withKeys(keys.toArray(new String[0])));
+ * </pre>
+ *
+ * @param <T> type of elements in the batches
+ * @param <R> type of the result of consuming a batch
+ */
+@FunctionalInterface
+public interface BatchConsumer<T, R> {
+    /**
+     * Consume a batch of elements; may be invoked concurrently for different batches
+     *
+     * @param batch non-empty batch of elements, in the order they were added to the sink
+     * @return result of consuming the batch (may be null)
+     */
+    R consumeBatch(List<T> batch);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Spliterator over the elements of a sequence of batches, pulled on demand from a spliterator of batches.  Splitting
+ * hands off whole batches: the remainder of the current batch, if any, otherwise the next batch.  Batches that are
+ * {@link java.util.Collection}s are split off with their collection's spliterator (typically SIZED and SUBSIZED),
+ * allowing parallel streams to further split batches across workers.
+ * <p>
+ * Splitting loads each batch it hands off, and a parallel stream keeps splitting a source of unknown size until
+ * splitting fails; at most {@value #MAX_SPLIT_BATCHES} batches are therefore split off, after which the remaining
+ * batches are traversed sequentially by the task holding them, rather than all batches being loaded up front.
+ * </p>
+ *
+ * @param <T> type of elements in the batches
+ */
+final class BatchElementSpliterator<T> implements Spliterator<T> {
+    /**
+     * Maximum number of batches handed off by {@link #trySplit()}
+     */
+    static final int MAX_SPLIT_BATCHES = 256;
+
+    private final Spliterator<? extends Iterable<T>> batchSpliterator;
+
+    private Spliterator<T> currentBatch;
+    private boolean batchesExhausted;
+    private int splitBatches;
+
+    BatchElementSpliterator(Spliterator<? extends Iterable<T>> batchSpliterator) {
+        this.batchSpliterator = checkNotNull(batchSpliterator, "batchSpliterator is required");
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        checkNotNull(action, "action is required");
+        do {
+            if (currentBatch != null && currentBatch.tryAdvance(action)) {
+                return true;
+            }
+        } while (advanceBatch());
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        checkNotNull(action, "action is required");
+        do {
+            if (currentBatch != null) {
+                currentBatch.forEachRemaining(action);
+            }
+        } while (advanceBatch());
+    }
+
+    private boolean advanceBatch() {
+        currentBatch = null;
+        if (batchesExhausted) {
+            return false;
+        }
+        batchesExhausted = !batchSpliterator.tryAdvance(batch -> currentBatch = batch.spliterator());
+        return !batchesExhausted;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (splitBatches >= MAX_SPLIT_BATCHES || (currentBatch == null && !advanceBatch())) {
+            return null;
+        }
+        // hand off the (remainder of the) current batch, a prefix of this spliterator's elements
+        Spliterator<T> split = currentBatch;
+        currentBatch = null;
+        splitBatches++;
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (!batchesExhausted) {
+            return Long.MAX_VALUE;
+        }
+        return currentBatch == null ? 0 : currentBatch.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.digitalascent.core.base.concurrent.Threads;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executors for running the batch producers of {@link MoreStreams} queued streams, as an alternative to creating a
+ * thread per stream.
+ * <p>
+ * The shared executor is a process-wide, bounded pool of daemon threads.  Each producer occupies a thread until its
+ * batches are loaded or its stream is closed; a producer whose stream is abandoned without being closed (or fully
+ * consumed) blocks on its full queue and holds its thread indefinitely.  Producers are therefore not queued behind
+ * busy threads, where a pool exhausted by abandoned streams would starve every later stream without any indication:
+ * once all {@link #SHARED_POOL_MAX_THREADS} threads are busy, creating another stream on the shared executor fails
+ * with {@link RejectedExecutionException}.  Close queued streams that are not fully consumed (e.g. with
+ * try-with-resources), and use a dedicated executor where more concurrently loading streams are required.
+ * </p>
+ */
+public final class BatchProducerExecutors {
+
+    /**
+     * Maximum number of threads in the shared producer pool
+     */
+    public static final int SHARED_POOL_MAX_THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private static final long SHARED_POOL_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Process-wide executor for batch producers; bounded to {@link #SHARED_POOL_MAX_THREADS} threads, which are
+     * created on demand and released when idle.  Rejects producers with {@link RejectedExecutionException} while all
+     * threads are busy.
+     *
+     * @return the shared producer executor
+     */
+    public static Executor shared() {
+        return SharedPoolHolder.SHARED_POOL;
+    }
+
+    /**
+     * Point-in-time metrics for the shared producer pool
+     *
+     * @return metrics snapshot
+     */
+    public static ProducerPoolMetrics sharedPoolMetrics() {
+        ThreadPoolExecutor pool = SharedPoolHolder.SHARED_POOL;
+        return new ProducerPoolMetrics(pool.getActiveCount(), pool.getPoolSize(), pool.getLargestPoolSize(),
+                pool.getMaximumPoolSize(), SharedPoolHolder.REJECTED_PRODUCERS.sum(), pool.getCompletedTaskCount());
+    }
+
+    /**
+     * Whether the running JVM supports virtual threads (Java 21+)
+     *
+     * @return true if {@link #virtualThreads()} is available
+     */
+    public static boolean virtualThreadsAvailable() {
+        return VirtualThreadHolder.VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Executor that runs each producer on a new virtual thread, removing the cost of platform thread creation and the
+     * need to bound producer concurrency.  Only available on Java 21+; resolved reflectively so that this library
+     * continues to run on Java 8.
+     *
+     * @return virtual thread executor
+     * @throws UnsupportedOperationException if virtual threads are not supported by the running JVM
+     */
+    public static Executor virtualThreads() {
+        if (VirtualThreadHolder.VIRTUAL_THREAD_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21+; running on " + System.getProperty("java.version"));
+        }
+        return VirtualThreadHolder.VIRTUAL_THREAD_EXECUTOR;
+    }
+
+    private static final class SharedPoolHolder {
+        private static final LongAdder REJECTED_PRODUCERS = new LongAdder();
+        private static final ThreadPoolExecutor SHARED_POOL = createSharedPool();
+
+        private static ThreadPoolExecutor createSharedPool() {
+            // hand-off queue: a producer either gets a thread or is rejected, rather than waiting behind (possibly abandoned) producers
+            return new ThreadPoolExecutor(0, SHARED_POOL_MAX_THREADS, SHARED_POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), Threads.defaultDaemonThreadFactory("BatchProducerExecutors.shared"),
+                    new SharedPoolRejectionHandler());
+        }
+    }
+
+    private static final class SharedPoolRejectionHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            SharedPoolHolder.REJECTED_PRODUCERS.increment();
+            throw new RejectedExecutionException("All " + executor.getMaximumPoolSize() + " shared batch producer threads are busy; "
+                    + "close streams that are not fully consumed, or use a dedicated executor");
+        }
+    }
+
+    private static final class VirtualThreadHolder {
+        private static final ExecutorService VIRTUAL_THREAD_EXECUTOR = createVirtualThreadExecutor();
+
+        @Nullable
+        private static ExecutorService createVirtualThreadExecutor() {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // pre-Java 21 (or virtual threads unavailable)
+                return null;
+            }
+        }
+    }
+
+    private BatchProducerExecutors() {
+        throw new AssertionError("Cannot instantiate " + getClass());
+    }
+}
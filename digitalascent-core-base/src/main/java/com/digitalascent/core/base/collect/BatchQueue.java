@@ -0,0 +1,300 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded queue of batches between asynchronous batch producers and the consuming stream.  Closing the stream closes
+ * the queue, releasing queued batches and cancelling the producers, so that producers of an abandoned
+ * (e.g. short-circuited) stream don't continue loading batches or block indefinitely on a full queue.
+ * <p>
+ * The number of queued batches may be further limited by:
+ * <ul>
+ * <li>an adaptive controller's current queue limit; the controller is notified of producer and consumer stalls</li>
+ * <li>a budget on the total weight (e.g. estimated bytes) of queued batches.  A batch heavier than the whole budget is
+ * only queued once the queue is empty.</li>
+ * </ul>
+ * <p>
+ * Queues for a single producer use a lock-free {@link SpscBlockingQueue}.
+ * </p>
+ *
+ * @param <T> type of elements in the batches
+ */
+final class BatchQueue<T> {
+    private static final BatchStreamListener NO_LISTENER = new BatchStreamListener() {
+    };
+
+    private final BlockingQueue<QueuedBatch<T>> queue;
+    private final QueuedBatch<T> poison = new QueuedBatch<>(new ArrayList<>(), 0);
+    private final AdaptivePrefetchController adaptiveController;
+    private final ToLongFunction<? super Iterable<T>> weigher;
+    private final long maxQueuedWeight;
+    private final boolean limited;
+    private final boolean singleProducer;
+    private final BatchStreamListener listener;
+
+    private final Object capacityMonitor = new Object();
+    // guarded by capacityMonitor
+    private long queuedWeight;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a queue for multiple concurrent producers
+     *
+     * @param queueSize maximum number of queued batches
+     */
+    BatchQueue(int queueSize) {
+        this(queueSize, false, null, null, 0, null);
+    }
+
+    /**
+     * Create a queue for a single producer
+     *
+     * @param adaptiveController limits the number of queued batches
+     */
+    BatchQueue(AdaptivePrefetchController adaptiveController) {
+        this(adaptiveController.getSettings().getMaxQueueSize(), true, adaptiveController, null, 0, null);
+    }
+
+    /**
+     * @param queueSize          maximum number of queued batches
+     * @param singleProducer     true if batches are put (and the queue finished) by a single producer at a time,
+     *                           allowing a lock-free queue
+     * @param adaptiveController if provided, further limits the number of queued batches
+     * @param weigher            if provided, weighs each batch's elements against the maxQueuedWeight budget
+     * @param maxQueuedWeight    maximum total weight of queued batches, if a weigher is provided
+     * @param listener           if provided, notified of fetches, queueing and stalls
+     */
+    BatchQueue(int queueSize, boolean singleProducer, @Nullable AdaptivePrefetchController adaptiveController,
+               @Nullable ToLongFunction<? super Iterable<T>> weigher, long maxQueuedWeight, @Nullable BatchStreamListener listener) {
+        checkArgument(queueSize > 0, "queueSize must be > 0 : %s", queueSize);
+        checkArgument(weigher == null || maxQueuedWeight > 0, "maxQueuedWeight must be > 0 : %s", maxQueuedWeight);
+        this.queue = singleProducer ? new SpscBlockingQueue<>(queueSize) : new ArrayBlockingQueue<>(queueSize);
+        this.singleProducer = singleProducer;
+        this.adaptiveController = adaptiveController;
+        this.weigher = weigher;
+        this.maxQueuedWeight = maxQueuedWeight;
+        this.limited = adaptiveController != null || weigher != null;
+        this.listener = listener == null ? NO_LISTENER : listener;
+    }
+
+    /**
+     * Loads the chain of batches from the provided supplier, adding each to the queue (blocking when the queue is full),
+     * until all batches are loaded or the queue is closed
+     *
+     * @param batchSupplier the supplier that provides batches
+     * @throws InterruptedException if interrupted while waiting, other than by closing the stream
+     */
+    void load(BatchSupplier<T> batchSupplier) throws InterruptedException {
+        if (!closed) {
+            BatchChains.fetchBatches(batchSupplier, listener, batch -> put(batch) && !closed);
+        }
+    }
+
+    /**
+     * Add a batch to the queue, blocking while the queue is full
+     *
+     * @param batch the batch to add
+     * @return true if the batch was added, false if the queue has been closed (producers should stop producing)
+     * @throws InterruptedException if interrupted while waiting, other than by closing the stream
+     */
+    boolean put(Batch<T> batch) throws InterruptedException {
+        checkNotNull(batch, "batch is required");
+        if (closed) {
+            return false;
+        }
+        long blockedNanos = 0;
+        try {
+            long weight = 0;
+            if (limited) {
+                weight = weigher == null ? 0 : weigher.applyAsLong(batch.getIterable());
+                checkArgument(weight >= 0, "weight must be >= 0 : %s", weight);
+                blockedNanos = awaitCapacity(weight);
+            }
+            QueuedBatch<T> queuedBatch = new QueuedBatch<>(batch.getIterable(), weight);
+            if (!queue.offer(queuedBatch)) {
+                long blockedStart = System.nanoTime();
+                queue.put(queuedBatch);
+                blockedNanos += System.nanoTime() - blockedStart;
+            }
+        } catch (InterruptedException e) {
+            if (closed) {
+                // producer cancelled by closing the stream
+                return false;
+            }
+            throw e;
+        }
+        if (closed) {
+            // closed while putting; release the batch.  Only the consumer may poll a single-producer queue; the batch
+            // is instead released along with this queue
+            if (!singleProducer) {
+                queue.clear();
+            }
+            return false;
+        }
+        if (blockedNanos > 0) {
+            listener.onProducerBlocked(blockedNanos);
+        }
+        listener.onBatchQueued(queue.size());
+        return true;
+    }
+
+    /**
+     * Wait for the queue to be below the adaptive queue limit and for the weight budget to have room for the batch,
+     * reserving the batch's weight
+     *
+     * @return time blocked waiting for capacity
+     */
+    private long awaitCapacity(long weight) throws InterruptedException {
+        long blockedStart = 0;
+        synchronized (capacityMonitor) {
+            while (!closed && (overQueueLimit() || overWeightBudget(weight))) {
+                if (blockedStart == 0) {
+                    blockedStart = System.nanoTime();
+                }
+                capacityMonitor.wait();
+            }
+            queuedWeight += weight;
+        }
+        if (blockedStart == 0) {
+            return 0;
+        }
+        if (adaptiveController != null) {
+            // consumer is not keeping up
+            adaptiveController.onProducerBlocked();
+        }
+        return System.nanoTime() - blockedStart;
+    }
+
+    private boolean overQueueLimit() {
+        return adaptiveController != null && queue.size() >= adaptiveController.getQueueLimit();
+    }
+
+    private boolean overWeightBudget(long weight) {
+        // always allow a batch into an empty queue, otherwise an overweight batch would never be queued
+        return queuedWeight > 0 && queuedWeight + weight > maxQueuedWeight;
+    }
+
+    private void onBatchTaken(QueuedBatch<T> batch, long waitNanos) {
+        if (waitNanos > 0) {
+            listener.onConsumerWaited(waitNanos);
+        }
+        if (limited) {
+            if (adaptiveController != null) {
+                adaptiveController.onConsumerTake(waitNanos);
+            }
+            synchronized (capacityMonitor) {
+                queuedWeight -= batch.weight;
+                capacityMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Notify the consumer that all producers are finished (successfully or not); no-op if the queue has been closed
+     */
+    void finish() {
+        if (!closed) {
+            // if closed while waiting, space is freed by close()
+            Uninterruptibles.putUninterruptibly(queue, poison);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the queue, releasing any queued batches; producers are notified via {@link #put(Batch)} and {@link #isClosed()}
+     */
+    void close() {
+        closed = true;
+        queue.clear();
+        synchronized (capacityMonitor) {
+            queuedWeight = 0;
+            capacityMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Creates a stream of elements from the batches in this queue, terminating when all producers are finished.
+     * Closing the stream closes this queue and cancels (interrupting) the producers.
+     *
+     * @param producerFuture future for the producer(s) of batches, used to propagate exceptions and to cancel producers
+     * @return Stream of elements from the queued batches
+     */
+    Stream<T> stream(Future<?> producerFuture) {
+        checkNotNull(producerFuture, "producerFuture is required");
+        return stream(producerFuture, () -> producerFuture.cancel(true));
+    }
+
+    /**
+     * Creates a stream of elements from the batches in this queue, terminating when all producers are finished.
+     * Closing the stream closes this queue and runs the provided close action.
+     *
+     * @param producerFuture future for the producer(s) of batches, used to propagate exceptions
+     * @param closeAction    run after closing this queue, e.g. to cancel producers
+     * @return Stream of elements from the queued batches
+     */
+    Stream<T> stream(Future<?> producerFuture, Runnable closeAction) {
+        checkNotNull(producerFuture, "producerFuture is required");
+        checkNotNull(closeAction, "closeAction is required");
+
+        QueueSpliterator<QueuedBatch<T>> batchSpliterator = new QueueSpliterator<>(queue, poison, producerFuture, this::onBatchTaken);
+        return StreamSupport.stream(new BatchElementSpliterator<>(batchSpliterator), false)
+                .onClose(() -> {
+                    close();
+                    closeAction.run();
+                });
+    }
+
+    private static final class QueuedBatch<T> implements Iterable<T> {
+        private final Iterable<T> iterable;
+        private final long weight;
+
+        QueuedBatch(Iterable<T> iterable, long weight) {
+            this.iterable = iterable;
+            this.weight = weight;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return iterable.iterator();
+        }
+
+        @Override
+        public Spliterator<T> spliterator() {
+            return iterable.spliterator();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Token-bucket rate limiter for batch fetches, shareable across suppliers (and threads) calling the same API so that
+ * together they stay within its rate limit.  The bucket holds up to <b>burstPermits</b> permits, refilled at
+ * <b>permitsPerSecond</b>; callers wait, in order, for a permit when the bucket is empty.
+ *
+ * @see BatchSuppliers#rateLimited(BatchSupplier, BatchRateLimiter)
+ */
+public final class BatchRateLimiter {
+    private final double permitsPerNano;
+    private final double burstPermits;
+
+    // guarded by this; negative when permits have been reserved by waiting callers
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    private BatchRateLimiter(double permitsPerSecond, int burstPermits) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burstPermits = burstPermits;
+        this.availablePermits = burstPermits;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @param permitsPerSecond sustained rate of permits
+     * @param burstPermits     maximum number of permits that may accumulate while idle, allowing short bursts above the rate
+     * @return rate limiter, initially full
+     */
+    public static BatchRateLimiter create(double permitsPerSecond, int burstPermits) {
+        checkArgument(permitsPerSecond > 0 && !Double.isInfinite(permitsPerSecond), "permitsPerSecond must be > 0 : %s", permitsPerSecond);
+        checkArgument(burstPermits > 0, "burstPermits must be > 0 : %s", burstPermits);
+        return new BatchRateLimiter(permitsPerSecond, burstPermits);
+    }
+
+    /**
+     * Acquire a permit, waiting (uninterruptibly) until one is available
+     *
+     * @return time spent waiting, in nanoseconds
+     */
+    public long acquire() {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            Uninterruptibles.sleepUninterruptibly(waitNanos, TimeUnit.NANOSECONDS);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Acquire a permit if one is immediately available
+     *
+     * @return true if a permit was acquired
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (availablePermits < 1) {
+            return false;
+        }
+        availablePermits -= 1;
+        return true;
+    }
+
+    /**
+     * Reserve the next permit
+     *
+     * @return time until the reserved permit is available
+     */
+    private synchronized long reserve() {
+        refill();
+        availablePermits -= 1;
+        return availablePermits >= 0 ? 0 : (long) Math.ceil(-availablePermits / permitsPerNano);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        availablePermits = Math.min(burstPermits, availablePermits + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+    }
+}
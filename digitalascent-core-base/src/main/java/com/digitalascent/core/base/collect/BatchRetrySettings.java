@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Retry policy for batch fetches: which failures are retryable (e.g. throttling and transient service errors), how many
+ * attempts to make, and the bounds of the jittered exponential backoff between attempts.
+ *
+ * @see BatchSuppliers#retrying(BatchSupplier, BatchRetrySettings)
+ */
+public final class BatchRetrySettings {
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Predicate<? super RuntimeException> retryable;
+
+    /**
+     * @param maxAttempts    maximum number of attempts to fetch a batch, including the first
+     * @param initialBackoff upper bound of the backoff before the first retry; doubles for each subsequent retry
+     * @param maxBackoff     maximum upper bound of the backoff
+     * @param unit           time unit of the backoffs
+     * @param retryable      tests whether a failure is retryable
+     */
+    public BatchRetrySettings(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit unit, Predicate<? super RuntimeException> retryable) {
+        checkArgument(maxAttempts > 0, "maxAttempts must be > 0 : %s", maxAttempts);
+        checkArgument(initialBackoff > 0, "initialBackoff must be > 0 : %s", initialBackoff);
+        checkArgument(maxBackoff >= initialBackoff, "maxBackoff must be >= initialBackoff : %s < %s", maxBackoff, initialBackoff);
+        checkNotNull(unit, "unit is required");
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+        this.retryable = checkNotNull(retryable, "retryable is required");
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoff(TimeUnit unit) {
+        return unit.convert(initialBackoffNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxBackoff(TimeUnit unit) {
+        return unit.convert(maxBackoffNanos, TimeUnit.NANOSECONDS);
+    }
+
+    boolean isRetryable(RuntimeException e) {
+        return retryable.test(e);
+    }
+
+    /**
+     * @param retry the retry number, starting at 1
+     * @return upper bound of the backoff before the retry: the initial backoff doubled for each previous retry, up to the maximum
+     */
+    long backoffCeilingNanos(int retry) {
+        int doublings = Math.min(retry - 1, Long.numberOfLeadingZeros(initialBackoffNanos) - 1);
+        return Math.min(maxBackoffNanos, initialBackoffNanos << doublings);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxAttempts", maxAttempts)
+                .add("initialBackoffNanos", initialBackoffNanos)
+                .add("maxBackoffNanos", maxBackoffNanos)
+                .toString();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+/**
+ * Listener for events in an asynchronously loaded batch stream, e.g. for metrics ({@link BatchStreamMetrics}).  Methods
+ * are invoked on producer and consumer threads, possibly concurrently, and should return quickly.
+ */
+public interface BatchStreamListener {
+    /**
+     * Size reported for batches whose number of elements isn't known, such as batches that aren't
+     * {@link java.util.Collection}s, and API responses
+     */
+    int UNKNOWN_SIZE = -1;
+
+    /**
+     * A batch has been fetched from the source
+     *
+     * @param size       number of elements in the batch, or {@link #UNKNOWN_SIZE}
+     * @param fetchNanos time taken to fetch the batch
+     */
+    default void onBatchFetched(int size, long fetchNanos) {
+    }
+
+    /**
+     * A producer was blocked waiting for space in the queue (or within the queue's weight budget)
+     *
+     * @param blockedNanos time the producer was blocked
+     */
+    default void onProducerBlocked(long blockedNanos) {
+    }
+
+    /**
+     * The consumer waited for a batch to be queued
+     *
+     * @param waitNanos time the consumer waited
+     */
+    default void onConsumerWaited(long waitNanos) {
+    }
+
+    /**
+     * A batch has been queued
+     *
+     * @param queuedBatches number of batches queued, including this batch
+     */
+    default void onBatchQueued(int queuedBatches) {
+    }
+}
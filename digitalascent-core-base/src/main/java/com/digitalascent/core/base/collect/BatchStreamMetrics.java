@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe listener that accumulates metrics for batch streams: batches fetched and their elements, fetch latencies,
+ * time producers spent blocked on a full queue, time consumers spent waiting on an empty queue, and peak queue occupancy.
+ * Use one instance per stream for per-stream metrics, or share an instance to aggregate across streams.
+ * <pre>
+ * BatchStreamMetrics metrics = new BatchStreamMetrics();
+ * long count = MoreStreams.queuedBatchLoadingStreamBuilder(batchSupplier)
+ *      .withListener(metrics)
+ *      .build()
+ *      .count();
+ * logger.info("Listing stats: {}", metrics.stats());
+ * </pre>
+ */
+public final class BatchStreamMetrics implements BatchStreamListener {
+    // upper bounds (inclusive) of fetch latency histogram buckets, in milliseconds
+    private static final long[] LATENCY_BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, Long.MAX_VALUE};
+
+    private final LongAdder batchesFetched = new LongAdder();
+    private final LongAdder elementsFetched = new LongAdder();
+    private final LongAdder totalFetchNanos = new LongAdder();
+    private final AtomicLongArray fetchLatencyBuckets = new AtomicLongArray(LATENCY_BUCKET_BOUNDS_MILLIS.length);
+    private final LongAdder producerBlockedNanos = new LongAdder();
+    private final LongAdder consumerWaitNanos = new LongAdder();
+    private final AtomicInteger peakQueuedBatches = new AtomicInteger();
+
+    @Override
+    public void onBatchFetched(int size, long fetchNanos) {
+        batchesFetched.increment();
+        if (size != UNKNOWN_SIZE) {
+            elementsFetched.add(size);
+        }
+        totalFetchNanos.add(fetchNanos);
+        fetchLatencyBuckets.incrementAndGet(latencyBucket(fetchNanos));
+    }
+
+    private static int latencyBucket(long fetchNanos) {
+        // round up, so that the bucket bounds are inclusive
+        long fetchMillis = TimeUnit.NANOSECONDS.toMillis(fetchNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+        int bucket = 0;
+        while (fetchMillis > LATENCY_BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    @Override
+    public void onProducerBlocked(long blockedNanos) {
+        producerBlockedNanos.add(blockedNanos);
+    }
+
+    @Override
+    public void onConsumerWaited(long waitNanos) {
+        consumerWaitNanos.add(waitNanos);
+    }
+
+    @Override
+    public void onBatchQueued(int queuedBatches) {
+        peakQueuedBatches.accumulateAndGet(queuedBatches, Math::max);
+    }
+
+    /**
+     * @return point-in-time snapshot of the metrics
+     */
+    public BatchStreamStats stats() {
+        long[] latencyCounts = new long[LATENCY_BUCKET_BOUNDS_MILLIS.length];
+        for (int i = 0; i < latencyCounts.length; i++) {
+            latencyCounts[i] = fetchLatencyBuckets.get(i);
+        }
+        return new BatchStreamStats(batchesFetched.sum(), elementsFetched.sum(), totalFetchNanos.sum(),
+                LATENCY_BUCKET_BOUNDS_MILLIS, latencyCounts, producerBlockedNanos.sum(), consumerWaitNanos.sum(),
+                peakQueuedBatches.get());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time statistics for batch streams, from {@link BatchStreamMetrics}
+ */
+public final class BatchStreamStats {
+    private final long batchesFetched;
+    private final long elementsFetched;
+    private final long totalFetchNanos;
+    private final SortedMap<Long, Long> fetchLatencyHistogram;
+    private final long producerBlockedNanos;
+    private final long consumerWaitNanos;
+    private final int peakQueuedBatches;
+
+    BatchStreamStats(long batchesFetched, long elementsFetched, long totalFetchNanos, long[] latencyBucketBoundsMillis,
+                     long[] latencyCounts, long producerBlockedNanos, long consumerWaitNanos, int peakQueuedBatches) {
+        this.batchesFetched = batchesFetched;
+        this.elementsFetched = elementsFetched;
+        this.totalFetchNanos = totalFetchNanos;
+        ImmutableSortedMap.Builder<Long, Long> histogram = ImmutableSortedMap.naturalOrder();
+        for (int i = 0; i < latencyBucketBoundsMillis.length; i++) {
+            histogram.put(latencyBucketBoundsMillis[i], latencyCounts[i]);
+        }
+        this.fetchLatencyHistogram = histogram.build();
+        this.producerBlockedNanos = producerBlockedNanos;
+        this.consumerWaitNanos = consumerWaitNanos;
+        this.peakQueuedBatches = peakQueuedBatches;
+    }
+
+    /**
+     * @return number of batches (or responses) fetched
+     */
+    public long getBatchesFetched() {
+        return batchesFetched;
+    }
+
+    /**
+     * @return number of elements in fetched batches, excluding batches of unknown size
+     */
+    public long getElementsFetched() {
+        return elementsFetched;
+    }
+
+    /**
+     * @param unit time unit of the result
+     * @return mean time to fetch a batch; 0 if no batches have been fetched
+     */
+    public long getMeanFetchLatency(TimeUnit unit) {
+        return batchesFetched == 0 ? 0 : unit.convert(totalFetchNanos / batchesFetched, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number of fetches by latency bucket, keyed by the bucket's (inclusive) upper bound in milliseconds;
+     * the last bucket's bound is Long.MAX_VALUE
+     */
+    public SortedMap<Long, Long> getFetchLatencyHistogram() {
+        return fetchLatencyHistogram;
+    }
+
+    /**
+     * @param unit time unit of the result
+     * @return total time producers were blocked on a full queue; time spent blocked is time the source could have been
+     * fetching, a sign that the consumer is the bottleneck
+     */
+    public long getProducerBlockedTime(TimeUnit unit) {
+        return unit.convert(producerBlockedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit time unit of the result
+     * @return total time consumers waited on an empty queue, a sign that the source is the bottleneck
+     */
+    public long getConsumerWaitTime(TimeUnit unit) {
+        return unit.convert(consumerWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return largest number of batches that were queued at once
+     */
+    public int getPeakQueuedBatches() {
+        return peakQueuedBatches;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("batchesFetched", batchesFetched)
+                .add("elementsFetched", elementsFetched)
+                .add("meanFetchLatencyMillis", getMeanFetchLatency(TimeUnit.MILLISECONDS))
+                .add("fetchLatencyHistogram", fetchLatencyHistogram)
+                .add("producerBlockedMillis", getProducerBlockedTime(TimeUnit.MILLISECONDS))
+                .add("consumerWaitMillis", getConsumerWaitTime(TimeUnit.MILLISECONDS))
+                .add("peakQueuedBatches", peakQueuedBatches)
+                .toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Publisher that lazy-loads batches of elements from a BatchSupplier as subscriber demand requires them.  Batches are
+ * loaded by the thread signalling demand; no dedicated thread or queue is used.  Each subscriber receives the full
+ * chain of batches, starting from the first batch.
+ *
+ * @param <T> type of elements in the batches
+ */
+final class BatchSupplierPublisher<T> implements Publisher<T> {
+    private final BatchSupplier<T> batchSupplier;
+
+    BatchSupplierPublisher(BatchSupplier<T> batchSupplier) {
+        this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        checkNotNull(subscriber, "subscriber is required");
+        subscriber.onSubscribe(new BatchSubscription<>(subscriber, batchSupplier));
+    }
+
+    private static final class BatchSubscription<T> extends AbstractDemandSubscription<T> {
+        private final BatchSupplier<T> batchSupplier;
+        private Iterator<T> currentIterator;
+        private String nextToken;
+        private boolean lastBatchLoaded;
+
+        BatchSubscription(Subscriber<? super T> subscriber, BatchSupplier<T> batchSupplier) {
+            super(subscriber);
+            this.batchSupplier = batchSupplier;
+        }
+
+        @Override
+        void drainLoop() {
+            while (!isCancelled()) {
+                if (currentIterator != null && currentIterator.hasNext()) {
+                    if (!hasDemand()) {
+                        return;
+                    }
+                    emit(currentIterator.next());
+                } else if (lastBatchLoaded) {
+                    complete();
+                    return;
+                } else if (hasDemand()) {
+                    try {
+                        loadNextBatch();
+                    } catch (RuntimeException e) {
+                        error(e);
+                        return;
+                    }
+                } else {
+                    // only load the next batch once there is demand for it
+                    return;
+                }
+            }
+        }
+
+        private void loadNextBatch() {
+            Batch<T> batch = BatchChains.fetchBatch(batchSupplier, nextToken);
+            currentIterator = batch.getIterable().iterator();
+            nextToken = batch.getNextToken();
+            lastBatchLoaded = nextToken == null;
+        }
+
+        @Override
+        void onCancel() {
+            currentIterator = null;
+        }
+    }
+}
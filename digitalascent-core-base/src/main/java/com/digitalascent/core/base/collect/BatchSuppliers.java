@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decorators for BatchSuppliers
+ */
+public final class BatchSuppliers {
+
+    /**
+     * Decorate a supplier to serve batches from the provided cache, loading batches not in the cache from the supplier.
+     * Useful when the same source is listed repeatedly; batches may be stale by up to the cache's expiry time.
+     *
+     * @param batchSupplier the supplier to load batches from
+     * @param sourceId      identifies the source (e.g. "ssm:/app/config" or "s3://bucket/prefix"); batches are cached per source id
+     *                      and token, so suppliers for the same source may share cached batches
+     * @param batchCache    the cache to store batches in
+     * @param <T>           type of element
+     * @return BatchSupplier serving batches from the cache
+     */
+    public static <T> BatchSupplier<T> caching(BatchSupplier<T> batchSupplier, String sourceId, BatchCache batchCache) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        checkNotNull(sourceId, "sourceId is required");
+        checkNotNull(batchCache, "batchCache is required");
+
+        return nextBatchToken -> batchCache.get(sourceId, nextBatchToken, batchSupplier);
+    }
+
+    /**
+     * Decorate a supplier to acquire a permit from the provided rate limiter before fetching each batch.  Share the rate
+     * limiter across all suppliers calling the same API (e.g. parallel partitions) to keep their combined rate within its limit.
+     * <p>
+     * When combined with {@link #retrying(BatchSupplier, BatchRetrySettings)}, rate limit the supplier being retried so that
+     * retries also acquire permits: {@code retrying(rateLimited(supplier, rateLimiter), retrySettings)}.
+     * </p>
+     *
+     * @param batchSupplier the supplier to load batches from
+     * @param rateLimiter   the rate limiter to acquire permits from
+     * @param <T>           type of element
+     * @return BatchSupplier limited to the rate limiter's rate
+     */
+    public static <T> BatchSupplier<T> rateLimited(BatchSupplier<T> batchSupplier, BatchRateLimiter rateLimiter) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        checkNotNull(rateLimiter, "rateLimiter is required");
+
+        return nextBatchToken -> {
+            rateLimiter.acquire();
+            return batchSupplier.nextBatch(nextBatchToken);
+        };
+    }
+
+    /**
+     * Decorate a supplier to retry retryable failures (e.g. throttling) with jittered exponential backoff, rather than
+     * failing the stream.  Retries request the same token, so no batch is skipped or repeated.
+     *
+     * @param batchSupplier the supplier to load batches from
+     * @param retrySettings which failures to retry, and how
+     * @param <T>           type of element
+     * @return BatchSupplier retrying retryable failures
+     */
+    public static <T> BatchSupplier<T> retrying(BatchSupplier<T> batchSupplier, BatchRetrySettings retrySettings) {
+        return new RetryingBatchSupplier<>(batchSupplier, retrySettings);
+    }
+
+    private BatchSuppliers() {
+        throw new AssertionError("Cannot instantiate " + getClass());
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.digitalascent.core.base.concurrent.Threads;
+import com.google.common.base.Throwables;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Groups added elements into batches for a {@link BatchConsumer}, turning per-element API calls into bulk calls (e.g. S3
+ * DeleteObjects, SQS SendMessageBatch).  A batch is flushed once it reaches the maximum number of elements or weight, or
+ * once its first element has lingered for the maximum linger time; up to the configured number of batches are consumed
+ * concurrently, beyond which adding elements blocks until a flush completes.
+ * <p>
+ * Each element's {@link #add(Object)} future completes with the result of consuming its batch.  Closing the sink flushes
+ * the remaining elements and waits for all batches to be consumed, throwing the first failure to consume a batch, if any;
+ * as such the sink can be used as a stream's terminal consumer:
+ * </p>
+ * <pre>
+ * try (BatchingSink&lt;String, DeleteObjectsResult&gt; sink = BatchingSink.builder(deleter).withMaxBatchSize(1000).build()) {
+ *      keysToDelete.forEach(sink);
+ * }
+ * </pre>
+ * Adding elements is thread-safe; elements are batched in the order they are added.
+ *
+ * @param <T> type of element
+ * @param <R> type of the result of consuming a batch
+ */
+public final class BatchingSink<T, R> implements Consumer<T>, AutoCloseable {
+    private final BatchConsumer<T, R> batchConsumer;
+    private final int maxBatchSize;
+    private final ToLongFunction<? super T> weigher;
+    private final long maxBatchWeight;
+    private final long maxLingerNanos;
+    private final int maxConcurrentFlushes;
+    private final Semaphore flushPermits;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final ScheduledExecutorService lingerScheduler;
+    private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+    // guarded by this
+    private List<T> currentBatch;
+    private long currentBatchWeight;
+    private CompletableFuture<R> currentBatchResult;
+    private long batchSequence;
+    private boolean closed;
+
+    /**
+     * Create a builder for a sink that groups elements into batches for the provided consumer
+     *
+     * @param batchConsumer consumer of batches, e.g. making bulk API calls
+     * @param <T>           type of element
+     * @param <R>           type of the result of consuming a batch
+     * @return builder for the sink
+     */
+    public static <T, R> BatchingSinkBuilder<T, R> builder(BatchConsumer<T, R> batchConsumer) {
+        return new BatchingSinkBuilder<>(batchConsumer);
+    }
+
+    BatchingSink(BatchConsumer<T, R> batchConsumer, int maxBatchSize, @Nullable ToLongFunction<? super T> weigher, long maxBatchWeight,
+                 long maxLingerNanos, int maxConcurrentFlushes, @Nullable Executor executor) {
+        this.batchConsumer = checkNotNull(batchConsumer, "batchConsumer is required");
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be > 0 : %s", maxBatchSize);
+        checkArgument(weigher == null || maxBatchWeight > 0, "maxBatchWeight must be > 0 : %s", maxBatchWeight);
+        checkArgument(maxConcurrentFlushes > 0, "maxConcurrentFlushes must be > 0 : %s", maxConcurrentFlushes);
+        this.maxBatchSize = maxBatchSize;
+        this.weigher = weigher;
+        this.maxBatchWeight = maxBatchWeight;
+        this.maxLingerNanos = maxLingerNanos;
+        this.maxConcurrentFlushes = maxConcurrentFlushes;
+        this.flushPermits = new Semaphore(maxConcurrentFlushes);
+
+        String threadPoolPrefix = "BatchingSink:" + batchConsumer.getClass();
+        if (executor == null) {
+            this.ownedExecutor = Executors.newFixedThreadPool(maxConcurrentFlushes,
+                    Threads.defaultDaemonThreadFactory(threadPoolPrefix));
+            this.executor = ownedExecutor;
+        } else {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+        this.lingerScheduler = maxLingerNanos > 0 ? Executors.newSingleThreadScheduledExecutor(
+                Threads.defaultDaemonThreadFactory(threadPoolPrefix + ":linger")) : null;
+        startBatch();
+    }
+
+    /**
+     * Add an element to the current batch, flushing the batch if full; blocks while the maximum number of batches are
+     * being consumed
+     *
+     * @param element element to add
+     * @return future result of consuming the element's batch
+     */
+    public synchronized CompletableFuture<R> add(T element) {
+        checkState(!closed, "BatchingSink is closed");
+        long weight = 0;
+        if (weigher != null) {
+            weight = weigher.applyAsLong(element);
+            checkArgument(weight >= 0, "weight must be >= 0 : %s", weight);
+            if (!currentBatch.isEmpty() && currentBatchWeight + weight > maxBatchWeight) {
+                flushCurrentBatch();
+            }
+        }
+        if (currentBatch.isEmpty() && lingerScheduler != null) {
+            scheduleLingerFlush(batchSequence);
+        }
+
+        currentBatch.add(element);
+        currentBatchWeight += weight;
+        CompletableFuture<R> batchResult = currentBatchResult;
+        if (currentBatch.size() >= maxBatchSize || (weigher != null && currentBatchWeight >= maxBatchWeight)) {
+            flushCurrentBatch();
+        }
+        return batchResult;
+    }
+
+    /**
+     * As for {@link #add(Object)}, ignoring the result; failures are thrown by {@link #close()}
+     *
+     * @param element element to add
+     */
+    @Override
+    public void accept(T element) {
+        add(element);
+    }
+
+    /**
+     * Flush the current (partial) batch, if it contains any elements
+     */
+    public synchronized void flush() {
+        if (!currentBatch.isEmpty()) {
+            flushCurrentBatch();
+        }
+    }
+
+    /**
+     * Flush the current batch and wait for all batches to be consumed, releasing the sink's threads
+     *
+     * @throws RuntimeException the first failure to consume a batch, if any (checked exceptions are wrapped)
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flush();
+            closed = true;
+        }
+
+        // wait for in-flight batches
+        flushPermits.acquireUninterruptibly(maxConcurrentFlushes);
+        flushPermits.release(maxConcurrentFlushes);
+        if (lingerScheduler != null) {
+            lingerScheduler.shutdownNow();
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+
+        Throwable failure = firstFailure.get();
+        if (failure != null) {
+            Throwables.throwIfUnchecked(failure);
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private void startBatch() {
+        currentBatch = new ArrayList<>(Math.min(maxBatchSize, 1024));
+        currentBatchWeight = 0;
+        currentBatchResult = new CompletableFuture<>();
+        batchSequence++;
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void scheduleLingerFlush(long sequence) {
+        lingerScheduler.schedule(() -> {
+            synchronized (this) {
+                // only if the batch hasn't already been flushed
+                if (!closed && batchSequence == sequence && !currentBatch.isEmpty()) {
+                    flushCurrentBatch();
+                }
+            }
+        }, maxLingerNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Hand off the current batch to be consumed, waiting for a flush permit; called holding the lock, so that batches
+     * are handed off in order and adding elements blocks while waiting
+     */
+    private void flushCurrentBatch() {
+        List<T> batch = currentBatch;
+        CompletableFuture<R> batchResult = currentBatchResult;
+        startBatch();
+
+        flushPermits.acquireUninterruptibly();
+        try {
+            executor.execute(() -> consumeBatch(batch, batchResult));
+        } catch (RejectedExecutionException e) {
+            flushPermits.release();
+            batchResult.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void consumeBatch(List<T> batch, CompletableFuture<R> batchResult) {
+        try {
+            batchResult.complete(batchConsumer.consumeBatch(batch));
+        } catch (Throwable t) {
+            firstFailure.compareAndSet(null, t);
+            batchResult.completeExceptionally(t);
+        } finally {
+            flushPermits.release();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builds a {@link BatchingSink}, with settings:
+ * <ul>
+ * <li>the maximum number of elements in a batch (default 100)</li>
+ * <li>optionally, a maximum total weight (e.g. bytes) of the elements in a batch</li>
+ * <li>optionally, the maximum time an element lingers in a partial batch before it is flushed</li>
+ * <li>the number of batches that may be consumed concurrently (default 1), beyond which adding elements blocks</li>
+ * <li>the executor to consume batches on (default: a thread pool per sink)</li>
+ * </ul>
+ * <pre>
+ * try (BatchingSink&lt;String, DeleteObjectsResult&gt; sink = BatchingSink.builder(deleter)
+ *      .withMaxBatchSize(1000)
+ *      .withMaxLinger(100, TimeUnit.MILLISECONDS)
+ *      .withMaxConcurrentFlushes(4)
+ *      .build()) {
+ *      keys.forEach(sink);
+ * }
+ * </pre>
+ *
+ * @param <T> type of element
+ * @param <R> type of the result of consuming a batch
+ */
+@SuppressWarnings({"UnusedReturnValue", "unused"})
+public final class BatchingSinkBuilder<T, R> {
+    static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    private final BatchConsumer<T, R> batchConsumer;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private ToLongFunction<? super T> weigher;
+    private long maxBatchWeight;
+    private long maxLingerNanos;
+    private int maxConcurrentFlushes = 1;
+    private Executor executor;
+
+    BatchingSinkBuilder(BatchConsumer<T, R> batchConsumer) {
+        this.batchConsumer = checkNotNull(batchConsumer, "batchConsumer is required");
+    }
+
+    /**
+     * @param maxBatchSize maximum number of elements in a batch, e.g. the API's bulk request limit (default 100)
+     * @return this builder
+     */
+    public BatchingSinkBuilder<T, R> withMaxBatchSize(int maxBatchSize) {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be > 0 : %s", maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Limit the total weight of the elements in a batch; a batch is flushed when adding an element would exceed the limit.
+     * An element heavier than the limit is flushed in a batch of its own.
+     *
+     * @param weigher        computes the weight (e.g. estimated bytes) of an element; must be >= 0
+     * @param maxBatchWeight maximum total weight of a batch, e.g. the API's request size limit
+     * @return this builder
+     */
+    public BatchingSinkBuilder<T, R> withMaxBatchWeight(ToLongFunction<? super T> weigher, long maxBatchWeight) {
+        this.weigher = checkNotNull(weigher, "weigher is required");
+        checkArgument(maxBatchWeight > 0, "maxBatchWeight must be > 0 : %s", maxBatchWeight);
+        this.maxBatchWeight = maxBatchWeight;
+        return this;
+    }
+
+    /**
+     * @param maxLinger maximum time from adding an element to a partial batch until the batch is flushed; by default
+     *                  partial batches are only flushed by {@link BatchingSink#flush()} or {@link BatchingSink#close()}
+     * @param unit      time unit of maxLinger
+     * @return this builder
+     */
+    public BatchingSinkBuilder<T, R> withMaxLinger(long maxLinger, TimeUnit unit) {
+        checkArgument(maxLinger > 0, "maxLinger must be > 0 : %s", maxLinger);
+        checkNotNull(unit, "unit is required");
+        this.maxLingerNanos = unit.toNanos(maxLinger);
+        return this;
+    }
+
+    /**
+     * @param maxConcurrentFlushes maximum number of batches consumed concurrently; adding elements blocks while a full
+     *                             batch is waiting for a flush to complete (default 1)
+     * @return this builder
+     */
+    public BatchingSinkBuilder<T, R> withMaxConcurrentFlushes(int maxConcurrentFlushes) {
+        checkArgument(maxConcurrentFlushes > 0, "maxConcurrentFlushes must be > 0 : %s", maxConcurrentFlushes);
+        this.maxConcurrentFlushes = maxConcurrentFlushes;
+        return this;
+    }
+
+    /**
+     * @param executor executor to consume batches on; by default a thread pool of maxConcurrentFlushes threads is created
+     *                 for the sink, and shut down when the sink is closed
+     * @return this builder
+     */
+    public BatchingSinkBuilder<T, R> withExecutor(Executor executor) {
+        this.executor = checkNotNull(executor, "executor is required");
+        return this;
+    }
+
+    /**
+     * @return sink grouping added elements into batches for the batch consumer
+     */
+    public BatchingSink<T, R> build() {
+        return new BatchingSink<>(batchConsumer, maxBatchSize, weigher, maxBatchWeight, maxLingerNanos, maxConcurrentFlushes, executor);
+    }
+}
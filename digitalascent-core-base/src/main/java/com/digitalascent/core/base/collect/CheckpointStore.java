@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.Optional;
+
+/**
+ * Persists the position of resumable batch streams, keyed by a caller-assigned stream id.
+ *
+ * @see MoreStreams#resumableBatchLoadingStream(String, BatchSupplier, CheckpointStore, int)
+ */
+public interface CheckpointStore {
+
+    /**
+     * Load the last saved checkpoint for a stream
+     *
+     * @param streamId id of the stream
+     * @return the checkpoint, or empty if the stream has no checkpoint (not started, or completed)
+     */
+    Optional<BatchCheckpoint> load(String streamId);
+
+    /**
+     * Save the checkpoint for a stream, replacing any previous checkpoint
+     *
+     * @param streamId   id of the stream
+     * @param checkpoint the checkpoint to save
+     */
+    void save(String streamId, BatchCheckpoint checkpoint);
+
+    /**
+     * Remove the checkpoint for a stream, typically once the stream has been fully consumed
+     *
+     * @param streamId id of the stream
+     */
+    void clear(String streamId);
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.collect.Iterators;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Spliterator over batches of elements that records its position in a CheckpointStore as elements are consumed, starting
+ * from the stream's saved checkpoint (if any).  The checkpoint is saved each time a batch is fully consumed and every
+ * <b>checkpointInterval</b> elements within a batch; it is cleared once all batches have been consumed.
+ *
+ * @param <T> type of elements in the batches
+ */
+final class CheckpointingBatchSpliterator<T> implements Spliterator<T> {
+    private final String streamId;
+    private final BatchSupplier<T> batchSupplier;
+    private final CheckpointStore checkpointStore;
+    private final int checkpointInterval;
+
+    private Iterator<T> currentIterator;
+    private String currentBatchToken;
+    private long consumedInBatch;
+    private String nextToken;
+    private boolean lastBatchLoaded;
+    private boolean started;
+
+    CheckpointingBatchSpliterator(String streamId, BatchSupplier<T> batchSupplier, CheckpointStore checkpointStore, int checkpointInterval) {
+        this.streamId = checkNotNull(streamId, "streamId is required");
+        this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+        this.checkpointStore = checkNotNull(checkpointStore, "checkpointStore is required");
+        checkArgument(checkpointInterval >= 0, "checkpointInterval must be >= 0 : %s", checkpointInterval);
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (!started) {
+            started = true;
+            resume();
+        }
+        while (!currentIterator.hasNext()) {
+            if (lastBatchLoaded) {
+                // all elements consumed; subsequent runs start from the beginning
+                checkpointStore.clear(streamId);
+                return false;
+            }
+            // current batch fully consumed
+            checkpointStore.save(streamId, new BatchCheckpoint(nextToken, 0));
+            loadBatch(nextToken);
+        }
+
+        action.accept(currentIterator.next());
+        consumedInBatch++;
+        if (checkpointInterval > 0 && consumedInBatch % checkpointInterval == 0) {
+            checkpointStore.save(streamId, new BatchCheckpoint(currentBatchToken, consumedInBatch));
+        }
+        return true;
+    }
+
+    private void resume() {
+        BatchCheckpoint checkpoint = checkpointStore.load(streamId).orElse(new BatchCheckpoint(null, 0));
+        loadBatch(checkpoint.getBatchToken());
+
+        // skip elements consumed prior to the checkpoint; assumes the source returns the same batch for the same token
+        long skipped = 0;
+        while (skipped < checkpoint.getElementOffset() && currentIterator.hasNext()) {
+            skipped += Iterators.advance(currentIterator, (int) Math.min(Integer.MAX_VALUE, checkpoint.getElementOffset() - skipped));
+        }
+        consumedInBatch = skipped;
+    }
+
+    private void loadBatch(String batchToken) {
+        Batch<T> batch = BatchChains.fetchBatch(batchSupplier, batchToken);
+
+        currentBatchToken = batchToken;
+        currentIterator = batch.getIterable().iterator();
+        consumedInBatch = 0;
+        nextToken = batch.getNextToken();
+        lastBatchLoaded = nextToken == null;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.NONNULL | Spliterator.ORDERED | Spliterator.IMMUTABLE;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Publisher that emits the responses of a chained continuation-token source, as described for
+ * {@link ContinuationTokenSpliterator}.  A request is only made to the source when there is outstanding subscriber demand
+ * and no request is in flight; the next request is chained from the completion of the previous one, without
+ * blocking the completing (typically SDK I/O) thread.
+ *
+ * @param <ResponseT> type of response
+ */
+final class ContinuableResponsePublisher<ResponseT> implements Publisher<ResponseT> {
+    private final ContinuableResponseSource<ResponseT> continuableResponseSource;
+
+    ContinuableResponsePublisher(ContinuableResponseSource<ResponseT> continuableResponseSource) {
+        this.continuableResponseSource = checkNotNull(continuableResponseSource, "continuableResponseSource is required");
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ResponseT> subscriber) {
+        checkNotNull(subscriber, "subscriber is required");
+        subscriber.onSubscribe(new ContinuableResponseSubscription<>(subscriber, continuableResponseSource));
+    }
+
+    private static final class ContinuableResponseSubscription<ResponseT> extends AbstractDemandSubscription<ResponseT> {
+        private final ContinuableResponseSource<ResponseT> continuableResponseSource;
+
+        // written by the completing thread, read by the draining thread
+        private volatile ResponseT completedResponse;
+        private volatile Throwable completedException;
+        private volatile CompletableFuture<ResponseT> inFlightFuture;
+        private volatile boolean sourceExhausted;
+
+        private ResponseT previousResponse;
+
+        ContinuableResponseSubscription(Subscriber<? super ResponseT> subscriber, ContinuableResponseSource<ResponseT> continuableResponseSource) {
+            super(subscriber);
+            this.continuableResponseSource = continuableResponseSource;
+        }
+
+        @Override
+        void drainLoop() {
+            while (!isCancelled()) {
+                if (inFlightFuture != null) {
+                    // completion of the in-flight request re-enters drain
+                    return;
+                }
+                // completion state is written before inFlightFuture is cleared, so is visible here
+                if (completedException != null) {
+                    error(completedException);
+                    return;
+                }
+                ResponseT response = completedResponse;
+                if (response != null) {
+                    if (!hasDemand()) {
+                        return;
+                    }
+                    completedResponse = null;
+                    previousResponse = response;
+                    emit(response);
+                } else if (sourceExhausted) {
+                    complete();
+                    return;
+                } else if (hasDemand()) {
+                    invokeRequest();
+                } else {
+                    return;
+                }
+            }
+        }
+
+        @SuppressWarnings("FutureReturnValueIgnored")
+        private void invokeRequest() {
+            CompletableFuture<ResponseT> completableFuture;
+            try {
+                completableFuture = continuableResponseSource.invoke(previousResponse);
+            } catch (RuntimeException e) {
+                completedException = e;
+                return;
+            }
+            if (completableFuture == null) {
+                sourceExhausted = true;
+                return;
+            }
+            inFlightFuture = completableFuture;
+
+            // if already complete this runs inline; drain() will not recurse as this thread is already draining
+            completableFuture.whenComplete((response, exception) -> {
+                if (exception != null) {
+                    completedException = exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+                } else if (response == null) {
+                    // no response to continue from
+                    sourceExhausted = true;
+                } else {
+                    completedResponse = response;
+                }
+                inFlightFuture = null;
+                drain();
+            });
+        }
+
+        @Override
+        void onCancel() {
+            CompletableFuture<ResponseT> future = inFlightFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+            completedResponse = null;
+            previousResponse = null;
+        }
+    }
+}
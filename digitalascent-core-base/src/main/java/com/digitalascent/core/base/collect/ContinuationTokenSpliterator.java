@@ -21,10 +21,15 @@ import com.google.common.util.concurrent.Uninterruptibles;
 
 import javax.annotation.Nullable;
 import java.util.Spliterator;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -32,7 +37,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Spliterator that provides async IO retrieval of source elements in a chained continuation-token model, where the first response
  * contains an optional continuation token to be used in a subsequent request.  Async calls are made via a ContinuableResponseSource
- * with up to the specified number of responses outstanding in a queue before blocking, waiting for the stream to consume responses.
+ * with up to the specified number of responses outstanding before deferring further requests, waiting for the stream to consume responses.
  * <p>
  * This allows the latency of API calls to be overlapped with processing earlier API results, while providing a Stream interface
  * to API responses.
@@ -44,75 +49,412 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *      return s3Client.listObjectsV2(request);
  * }, ListObjectsV2Response::nextContinuationToken, 5), false).map(rethrowingFunction(CompletableFuture::get));
  * </pre>
+ * <p>
+ * Requests are demand-driven: the next request is made when the previous response completes if there is room for it,
+ * otherwise when the stream consumes a response.  Threads completing responses (e.g. the async client's I/O threads)
+ * never block, and responses that complete immediately are chained iteratively rather than recursively.  As requests
+ * are chained, they are made by a single thread at a time, and responses are queued in a lock-free
+ * {@link SpscBlockingQueue}; no lock is held while invoking the response source or the listener.
+ * </p>
+ * <p>
+ * {@link #close()} stops chaining further requests, cancelling queued responses; register it with the owning stream
+ * ({@code stream.onClose(spliterator::close)}) so that short-circuited streams don't continue making requests.  As it
+ * takes queued responses, it must be called by the thread consuming the stream.
+ * </p>
+ * <p>
+ * Splitting hands off the next response if it has already been requested, allowing parallel streams to process
+ * responses concurrently.  A parallel stream keeps splitting a source of unknown size until splitting fails, so
+ * splitting never waits for a request, and at most {@value #MAX_SPLIT_RESPONSES} responses are split off; the remaining
+ * responses are then traversed sequentially, within the bounds on outstanding responses, rather than the whole chain
+ * being requested up front.
+ * </p>
+ * <p>
+ * Optionally, a weigher and budget limit the total weight (e.g. estimated bytes) of completed responses that have not
+ * yet been consumed; once the budget is exceeded the next request is deferred until the stream consumes responses.
+ * An optional {@link BatchStreamListener} is notified of response latencies, queueing and stalls; responses are reported
+ * as batches of the number of elements given by an optional response size function (e.g. the number of objects in a
+ * listing response), otherwise of unknown size.
+ * </p>
+ * <p>
+ * Alternatively, the number of outstanding responses and the page size hint passed to a
+ * {@link PageSizeHintedResponseSource} (e.g. S3 maxKeys) can be adapted to how quickly the stream consumes responses,
+ * as for {@link MoreStreams#adaptiveBatchLoadingStream(PageSizeHintedBatchSupplier, AdaptiveBatchSettings)}.
+ * </p>
  *
  * @param <ResponseT>
  */
 public final class ContinuationTokenSpliterator<ResponseT> extends SimpleApplicationObject implements Spliterator<CompletableFuture<ResponseT>> {
+    /**
+     * Maximum number of responses handed off by {@link #trySplit()}
+     */
+    static final int MAX_SPLIT_RESPONSES = 256;
+
+    // weight of a queued response that has not yet been weighed, and of a consumed response
+    private static final long UNWEIGHED = -1;
+    private static final long CONSUMED = -2;
+
+    private final PageSizeHintedResponseSource<ResponseT> responseSource;
+    private final int queueSize;
+    private final AdaptivePrefetchController adaptiveController;
 
-    private final CompletableFuture<ResponseT> poison = new CompletableFuture<>();
-    private final BlockingQueue<CompletableFuture<ResponseT>> queue;
-    private final ContinuableResponseSource<ResponseT> continuableResponseSource;
+    private final ToLongFunction<? super ResponseT> weigher;
+    private final long maxQueuedWeight;
+    private final BatchStreamListener listener;
+    private final ToIntFunction<? super ResponseT> responseSize;
 
+    // responses requested and not yet consumed, in request order, followed by endOfResponses once requests are exhausted
+    private final SpscBlockingQueue<QueuedResponse<ResponseT>> queue;
+    private final QueuedResponse<ResponseT> endOfResponses = new QueuedResponse<>(new CompletableFuture<>());
+    // total weight of completed, unconsumed responses
+    private final AtomicLong queuedWeight = new AtomicLong();
+
+    // requests are issued by whichever thread finds there is demand; only one thread at a time issues requests, others
+    // (e.g. a response completing immediately, while issuing) increment this to have the issuing thread check again
+    private final AtomicInteger requestDemandChecks = new AtomicInteger();
+
+    // the state of the chain of requests; lastResponse is written before requestOutstanding is cleared, and read after
+    private volatile boolean requestOutstanding;
+    private volatile boolean requestsExhausted;
+    private ResponseT lastResponse;
+    // only accessed by the thread issuing requests
+    private long requestsDeferredSince;
+
+    private volatile boolean closed;
     private boolean firstAdvance = true;
+    private boolean exhausted;
+    private int splitResponses;
 
     public ContinuationTokenSpliterator(ContinuableResponseSource<ResponseT> continuableResponseSource, int queueSize) {
-        this.continuableResponseSource = checkNotNull(continuableResponseSource, "continuableResponseSource is required");
+        this(continuableResponseSource, queueSize, null, 0, null);
+    }
+
+    /**
+     * As for {@link #ContinuationTokenSpliterator(ContinuableResponseSource, int, ToLongFunction, long, BatchStreamListener)},
+     * without a listener
+     */
+    public ContinuationTokenSpliterator(ContinuableResponseSource<ResponseT> continuableResponseSource, int queueSize,
+                                        @Nullable ToLongFunction<? super ResponseT> weigher, long maxQueuedWeight) {
+        this(continuableResponseSource, queueSize, weigher, maxQueuedWeight, null);
+    }
+
+    /**
+     * As for {@link #ContinuationTokenSpliterator(ContinuableResponseSource, int, ToLongFunction, long, BatchStreamListener, ToIntFunction)},
+     * with responses reported to the listener as batches of unknown size
+     */
+    public ContinuationTokenSpliterator(ContinuableResponseSource<ResponseT> continuableResponseSource, int queueSize,
+                                        @Nullable ToLongFunction<? super ResponseT> weigher, long maxQueuedWeight,
+                                        @Nullable BatchStreamListener listener) {
+        this(continuableResponseSource, queueSize, weigher, maxQueuedWeight, listener, null);
+    }
+
+    /**
+     * @param continuableResponseSource source of responses
+     * @param queueSize                 maximum number of outstanding responses
+     * @param weigher                   if provided, computes the weight (e.g. estimated bytes) of each completed response
+     * @param maxQueuedWeight           maximum total weight of completed responses not yet consumed, before deferring
+     *                                  further requests until the stream consumes responses
+     * @param listener                  if provided, notified of responses (as batches), queueing and stalls,
+     *                                  e.g. {@link BatchStreamMetrics}
+     * @param responseSize              if provided, computes the number of elements in each response, reported to the
+     *                                  listener; otherwise responses are reported as {@link BatchStreamListener#UNKNOWN_SIZE}
+     */
+    public ContinuationTokenSpliterator(ContinuableResponseSource<ResponseT> continuableResponseSource, int queueSize,
+                                        @Nullable ToLongFunction<? super ResponseT> weigher, long maxQueuedWeight,
+                                        @Nullable BatchStreamListener listener, @Nullable ToIntFunction<? super ResponseT> responseSize) {
+        this(ignoringPageSizeHint(continuableResponseSource), queueSize, null, weigher, maxQueuedWeight, listener, responseSize);
+    }
+
+    /**
+     * Create a spliterator that adapts the number of outstanding responses, and the page size hint passed to the source,
+     * to keep the stream busy without buffering more than it needs.  The number of outstanding responses tracks the number
+     * of responses the stream processes during one request; the page size hint grows when the stream waits for responses
+     * and shrinks when requests are deferred for want of room.  Each response is completed before it is passed to the
+     * stream, so that the time the stream waits for it is observed.
+     *
+     * @param responseSource source of responses, given a page size hint
+     * @param settings       bounds for the number of outstanding responses and the page size hint
+     * @param listener       if provided, notified of responses (as batches), queueing and stalls,
+     *                       e.g. {@link BatchStreamMetrics}
+     * @param responseSize   if provided, computes the number of elements in each response, reported to the listener;
+     *                       otherwise responses are reported as {@link BatchStreamListener#UNKNOWN_SIZE}
+     */
+    public ContinuationTokenSpliterator(PageSizeHintedResponseSource<ResponseT> responseSource, AdaptiveBatchSettings settings,
+                                        @Nullable BatchStreamListener listener, @Nullable ToIntFunction<? super ResponseT> responseSize) {
+        this(responseSource, checkNotNull(settings, "settings is required").getMaxQueueSize(), new AdaptivePrefetchController(settings),
+                null, 0, listener, responseSize);
+    }
+
+    private ContinuationTokenSpliterator(PageSizeHintedResponseSource<ResponseT> responseSource, int queueSize,
+                                         @Nullable AdaptivePrefetchController adaptiveController,
+                                         @Nullable ToLongFunction<? super ResponseT> weigher, long maxQueuedWeight,
+                                         @Nullable BatchStreamListener listener, @Nullable ToIntFunction<? super ResponseT> responseSize) {
+        this.responseSource = checkNotNull(responseSource, "responseSource is required");
 
         checkArgument(queueSize > 0, "queueSize > 0 : %s", queueSize);
-        this.queue = new ArrayBlockingQueue<>(queueSize);
+        checkArgument(weigher == null || maxQueuedWeight > 0, "maxQueuedWeight > 0 : %s", maxQueuedWeight);
+        this.queueSize = queueSize;
+        this.adaptiveController = adaptiveController;
+        // room for endOfResponses beyond the queued responses
+        this.queue = new SpscBlockingQueue<>(queueSize + 1);
+        this.weigher = weigher;
+        this.maxQueuedWeight = maxQueuedWeight;
+        this.listener = listener;
+        this.responseSize = responseSize;
+    }
+
+    private static <ResponseT> PageSizeHintedResponseSource<ResponseT> ignoringPageSizeHint(ContinuableResponseSource<ResponseT> continuableResponseSource) {
+        checkNotNull(continuableResponseSource, "continuableResponseSource is required");
+        return (previousResponse, pageSizeHint) -> continuableResponseSource.invoke(previousResponse);
     }
 
     @Override
     public boolean tryAdvance(Consumer<? super CompletableFuture<ResponseT>> action) {
+        CompletableFuture<ResponseT> completableResponse = nextResponse(true);
+        if (completableResponse == null) {
+            return false;
+        }
+        action.accept(completableResponse);
+        return true;
+    }
+
+    /**
+     * @param waitForResponse true to wait for the next response to be requested
+     * @return the next response; null once all responses have been consumed, when closed, or if not waiting and the
+     * next response has not yet been requested
+     */
+    @Nullable
+    private CompletableFuture<ResponseT> nextResponse(boolean waitForResponse) {
+        if (closed || exhausted) {
+            return null;
+        }
         if (firstAdvance) {
             // optimization - only make the initial request when initially advancing; subsequent requests
             // will continue asynchronously (chained off initial request, only one outstanding at a time)
-            invokeRequest( null );
             firstAdvance = false;
+            requestWhileDemanded();
         }
 
-        CompletableFuture<ResponseT> completableResponse = Uninterruptibles.takeUninterruptibly(queue);
-        if (completableResponse == poison) {
-            return false;
+        QueuedResponse<ResponseT> queuedResponse;
+        long waitNanos = 0;
+        if (waitForResponse) {
+            queuedResponse = queue.poll();
+            if (queuedResponse == null) {
+                long waitStart = System.nanoTime();
+                queuedResponse = Uninterruptibles.takeUninterruptibly(queue);
+                waitNanos = System.nanoTime() - waitStart;
+                if (listener != null) {
+                    listener.onConsumerWaited(waitNanos);
+                }
+            }
+        } else {
+            // only a response that has been requested (and when adapting, completed)
+            queuedResponse = queue.peek();
+            if (queuedResponse == null || (adaptiveController != null && !queuedResponse.response.isDone())) {
+                return null;
+            }
+            queue.poll();
         }
-        action.accept(completableResponse);
-        return true;
+        if (queuedResponse == endOfResponses) {
+            exhausted = true;
+            return null;
+        }
+        if (weigher != null) {
+            releaseWeight(queuedResponse);
+        }
+        // room for another response
+        requestWhileDemanded();
+
+        if (adaptiveController != null) {
+            if (!queuedResponse.response.isDone()) {
+                long waitStart = System.nanoTime();
+                awaitCompletion(queuedResponse.response);
+                waitNanos += System.nanoTime() - waitStart;
+            }
+            adaptiveController.onConsumerTake(waitNanos);
+            // the queue limit may have grown
+            requestWhileDemanded();
+        }
+        return queuedResponse.response;
     }
 
-    @SuppressWarnings("FutureReturnValueIgnored")
-    private void invokeRequest(@Nullable ResponseT previousResponse) {
-        CompletableFuture<ResponseT> completableFuture = continuableResponseSource.invoke(previousResponse);
-        if( completableFuture == null ) {
-            // done - terminate queue consumer
-            Uninterruptibles.putUninterruptibly(queue, poison);
+    private static void awaitCompletion(CompletableFuture<?> response) {
+        try {
+            Uninterruptibles.getUninterruptibly(response);
+        } catch (ExecutionException | CancellationException e) {
+            // propagated to the stream when it gets the response
+        }
+    }
+
+    /**
+     * Make requests while there is room for their responses, unless another thread is already doing so; never blocks
+     * (beyond invoking the response source), as it's called from threads completing responses.
+     */
+    private void requestWhileDemanded() {
+        if (requestDemandChecks.getAndIncrement() != 0) {
+            // the thread already making requests will check again
             return;
         }
-        Uninterruptibles.putUninterruptibly(queue, completableFuture);
+        int demandChecks = 1;
+        do {
+            requestIfDemanded();
+            demandChecks = requestDemandChecks.addAndGet(-demandChecks);
+        } while (demandChecks != 0);
+    }
 
-        // callback to chain next API call using continuation token from previous call
-        completableFuture.whenComplete((continuableResponse, exception) -> {
-            if( continuableResponse == null || exception != null ) {
-                // error condition; exception will be propagated to consumer when it get()s this future
-                // just in case we poison the queue to avoid a deadlock
-                Uninterruptibles.putUninterruptibly(queue, poison);
-                return;
+    // called by one thread at a time, the queue's producer
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void requestIfDemanded() {
+        // requestOutstanding is read first, so that the previous response's state is visible once it is cleared
+        if (closed || requestOutstanding || requestsExhausted) {
+            return;
+        }
+        if (queue.size() >= queueLimit() || (weigher != null && queuedWeight.get() > maxQueuedWeight)) {
+            // deferred until the stream consumes a response
+            if (requestsDeferredSince == 0) {
+                requestsDeferredSince = System.nanoTime();
+                if (adaptiveController != null) {
+                    adaptiveController.onProducerBlocked();
+                }
             }
-            invokeRequest(continuableResponse);
-        });
+            return;
+        }
+        if (requestsDeferredSince != 0) {
+            if (listener != null) {
+                listener.onProducerBlocked(System.nanoTime() - requestsDeferredSince);
+            }
+            requestsDeferredSince = 0;
+        }
+        requestOutstanding = true;
+        ResponseT previousResponse = lastResponse;
+        lastResponse = null;
+
+        long requestStart = System.nanoTime();
+        CompletableFuture<ResponseT> completableFuture = invokeRequest(previousResponse);
+        if (completableFuture == null) {
+            // done - terminate consumer once queued responses are consumed
+            requestsExhausted = true;
+            queue.offer(endOfResponses);
+            return;
+        }
+        // always room, as only this thread adds responses and there was room for one
+        QueuedResponse<ResponseT> queuedResponse = new QueuedResponse<>(completableFuture);
+        queue.offer(queuedResponse);
+        if (closed) {
+            // close() may have already cancelled queued responses; only the consumer may poll the queue
+            completableFuture.cancel(false);
+            return;
+        }
+        if (listener != null) {
+            listener.onBatchQueued(queue.size());
+        }
+
+        // callback to chain next API call using continuation token from previous call; runs immediately if already complete
+        completableFuture.whenComplete((continuableResponse, exception) -> onResponse(queuedResponse, continuableResponse, exception, requestStart));
+    }
+
+    private int queueLimit() {
+        return adaptiveController == null ? queueSize : adaptiveController.getQueueLimit();
+    }
+
+    @Nullable
+    private CompletableFuture<ResponseT> invokeRequest(@Nullable ResponseT previousResponse) {
+        try {
+            return responseSource.invoke(previousResponse, adaptiveController == null ? 0 : adaptiveController.getPageSize());
+        } catch (RuntimeException e) {
+            // propagate to the consumer as a failed response
+            CompletableFuture<ResponseT> failedResponse = new CompletableFuture<>();
+            failedResponse.completeExceptionally(e);
+            return failedResponse;
+        }
+    }
+
+    // called while a request is outstanding, so the only thread that may add to the queue
+    private void onResponse(QueuedResponse<ResponseT> queuedResponse, @Nullable ResponseT continuableResponse,
+                            @Nullable Throwable exception, long requestStart) {
+        if (closed) {
+            return;
+        }
+        if (continuableResponse == null || exception != null) {
+            // error condition; exception will be propagated to consumer when it get()s this future
+            requestsExhausted = true;
+            queue.offer(endOfResponses);
+            return;
+        }
+        long fetchNanos = System.nanoTime() - requestStart;
+        if (adaptiveController != null) {
+            adaptiveController.onFetch(fetchNanos);
+        }
+        if (listener != null) {
+            int size = responseSize == null ? BatchStreamListener.UNKNOWN_SIZE : responseSize.applyAsInt(continuableResponse);
+            listener.onBatchFetched(size, fetchNanos);
+        }
+        if (weigher != null) {
+            chargeWeight(queuedResponse, continuableResponse);
+        }
+        lastResponse = continuableResponse;
+        requestOutstanding = false;
+        requestWhileDemanded();
+    }
+
+    private void chargeWeight(QueuedResponse<ResponseT> queuedResponse, ResponseT response) {
+        long weight = weigher.applyAsLong(response);
+        checkArgument(weight >= 0, "weight must be >= 0 : %s", weight);
+        // a response consumed before completing is not charged
+        if (queuedResponse.weight.compareAndSet(UNWEIGHED, weight)) {
+            queuedWeight.addAndGet(weight);
+        }
+    }
+
+    private void releaseWeight(QueuedResponse<ResponseT> queuedResponse) {
+        long weight = queuedResponse.weight.getAndSet(CONSUMED);
+        if (weight > 0) {
+            queuedWeight.addAndGet(-weight);
+        }
+    }
+
+    /**
+     * Stop making requests, cancelling any queued responses that have not been consumed; called by the thread
+     * consuming the stream
+     */
+    public void close() {
+        closed = true;
+        QueuedResponse<ResponseT> queuedResponse;
+        while ((queuedResponse = queue.poll()) != null) {
+            queuedResponse.response.cancel(false);
+        }
     }
 
     @Override
     public Spliterator<CompletableFuture<ResponseT>> trySplit() {
-        return null;
+        if (splitResponses >= MAX_SPLIT_RESPONSES) {
+            return null;
+        }
+        // hand off the next response to be processed independently, e.g. by another fork-join worker in parallel streams
+        CompletableFuture<ResponseT> completableResponse = nextResponse(false);
+        if (completableResponse == null) {
+            return null;
+        }
+        splitResponses++;
+        return Spliterators.spliterator(new Object[]{completableResponse}, characteristics());
     }
 
     @Override
     public long estimateSize() {
-        return Long.MAX_VALUE;
+        return closed || exhausted ? 0 : Long.MAX_VALUE;
     }
 
     @Override
     public int characteristics() {
         return Spliterator.NONNULL | Spliterator.ORDERED | Spliterator.IMMUTABLE;
     }
+
+    private static final class QueuedResponse<ResponseT> {
+        private final CompletableFuture<ResponseT> response;
+        // UNWEIGHED until the response completes and is weighed, CONSUMED once the stream consumes it
+        private final AtomicLong weight = new AtomicLong(UNWEIGHED);
+
+        QueuedResponse(CompletableFuture<ResponseT> response) {
+            this.response = response;
+        }
+    }
 }
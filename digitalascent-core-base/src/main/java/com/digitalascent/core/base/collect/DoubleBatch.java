@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Spliterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A batch of double values, as for {@link Batch}, backed by a primitive array to stream values without boxing.
+ * <p>
+ * The array is not copied; it must not be modified once the batch has been created.
+ * </p>
+ */
+public final class DoubleBatch {
+    private static final double[] EMPTY = new double[0];
+
+    private final String nextToken;
+    private final double[] values;
+    private final int fromIndex;
+    private final int toIndex;
+
+    public static DoubleBatch emptyBatch() {
+        return new DoubleBatch(null, EMPTY);
+    }
+
+    public DoubleBatch(@Nullable String nextToken, double[] values) {
+        this(nextToken, values, 0, checkNotNull(values, "values is required").length);
+    }
+
+    /**
+     * @param nextToken token for the next batch; null if there is no next batch
+     * @param values    array containing the batch's values, e.g. a reused response buffer
+     * @param fromIndex index of the first value, inclusive
+     * @param toIndex   index of the last value, exclusive
+     */
+    public DoubleBatch(@Nullable String nextToken, double[] values, int fromIndex, int toIndex) {
+        this.nextToken = nextToken;
+        this.values = checkNotNull(values, "values is required");
+        checkPositionIndexes(fromIndex, toIndex, values.length);
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+    }
+
+    String getNextToken() {
+        return nextToken;
+    }
+
+    Spliterator.OfDouble spliterator() {
+        return Arrays.spliterator(values, fromIndex, toIndex);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads elements in a compact binary form, e.g. for spilling elements to disk.
+ * <p>
+ * Example usage:
+ * <pre>
+ * ElementSerializer&lt;S3Object&gt; serializer = new ElementSerializer&lt;S3Object&gt;() {
+ *      public void write(S3Object object, DataOutput output) throws IOException {
+ *          output.writeUTF(object.key());
+ *          output.writeLong(object.size());
+ *      }
+ *
+ *      public S3Object read(DataInput input) throws IOException {
+ *          return S3Object.builder().key(input.readUTF()).size(input.readLong()).build();
+ *      }
+ * };
+ * </pre>
+ *
+ * @param <T> type of element
+ */
+public interface ElementSerializer<T> {
+    /**
+     * @param element element to write
+     * @param output  output to write the element to
+     * @throws IOException if unable to write to the output
+     */
+    void write(T element, DataOutput output) throws IOException;
+
+    /**
+     * @param input input to read an element from, as written by {@link #write(Object, DataOutput)}
+     * @return the element read
+     * @throws IOException if unable to read from the input
+     */
+    T read(DataInput input) throws IOException;
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Iterator over the elements of a source iterator, sorted using runs that fit within a memory budget.  On the first
+ * access the source is read into memory, sorting and spilling each run to a binary run file once the budget is
+ * exceeded; the run files (and the final run, held in memory) are then merged lazily.  If the source fits within
+ * the budget it is sorted in memory without spilling.  The sort is stable.
+ * <p>
+ * Each run being merged holds an open file and a read buffer, so the number of runs merged at once is capped at
+ * {@value #MAX_MERGE_FAN_IN}; beyond that, consecutive runs are first merged into longer run files, in as many passes
+ * as needed.
+ * </p>
+ * <p>
+ * Run files are deleted once the iterator is exhausted or closed.
+ * </p>
+ *
+ * @param <T> type of elements
+ */
+final class ExternalSortIterator<T> implements Iterator<T>, AutoCloseable {
+    private static final int IO_BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * Maximum number of runs merged at once (including the in-memory run)
+     */
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    private final Iterator<T> source;
+    private final Comparator<? super T> comparator;
+    private final ElementSerializer<T> serializer;
+    private final ToLongFunction<? super T> weigher;
+    private final long memoryBudget;
+    private final Path spillDirectory;
+
+    private final List<Path> runFiles = new ArrayList<>();
+    private final List<RunFileIterator<T>> runFileIterators = new ArrayList<>();
+    private Iterator<T> sorted;
+
+    ExternalSortIterator(Iterator<T> source, Comparator<? super T> comparator, ElementSerializer<T> serializer,
+                         ToLongFunction<? super T> weigher, long memoryBudget, Path spillDirectory) {
+        this.source = checkNotNull(source, "source is required");
+        this.comparator = checkNotNull(comparator, "comparator is required");
+        this.serializer = checkNotNull(serializer, "serializer is required");
+        this.weigher = checkNotNull(weigher, "weigher is required");
+        checkArgument(memoryBudget > 0, "memoryBudget must be > 0 : %s", memoryBudget);
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = checkNotNull(spillDirectory, "spillDirectory is required");
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (sorted == null) {
+            sorted = sort();
+        }
+        if (!sorted.hasNext()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return sorted.next();
+    }
+
+    private Iterator<T> sort() {
+        List<T> run = new ArrayList<>();
+        long runWeight = 0;
+        try {
+            while (source.hasNext()) {
+                T element = source.next();
+                long weight = weigher.applyAsLong(element);
+                checkArgument(weight >= 0, "weight must be >= 0 : %s", weight);
+                run.add(element);
+                runWeight += weight;
+                if (runWeight > memoryBudget) {
+                    run.sort(comparator);
+                    spill(run);
+                    run.clear();
+                    runWeight = 0;
+                }
+            }
+            run.sort(comparator);
+            if (runFiles.isEmpty()) {
+                return run.iterator();
+            }
+
+            // leave room for the in-memory run in the final merge
+            while (runFiles.size() >= MAX_MERGE_FAN_IN) {
+                mergeRunFiles();
+            }
+
+            // merge runs in the order they were read, with the in-memory run last, for a stable sort
+            List<Iterator<T>> runs = openRunFiles(runFiles);
+            runs.add(run.iterator());
+            return new MergeSortedIterator<>(comparator, null, runs);
+        } catch (RuntimeException | Error e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void spill(List<T> run) {
+        writeRun(run.iterator(), run.size());
+    }
+
+    /**
+     * Merge each group of {@value #MAX_MERGE_FAN_IN} consecutive run files into a single run file, replacing them;
+     * merging consecutive runs in order keeps the sort stable
+     */
+    private void mergeRunFiles() {
+        List<Path> inputRunFiles = new ArrayList<>(runFiles);
+        List<Path> mergedRunFiles = new ArrayList<>();
+        for (List<Path> group : Lists.partition(inputRunFiles, MAX_MERGE_FAN_IN)) {
+            if (group.size() == 1) {
+                mergedRunFiles.add(group.get(0));
+                continue;
+            }
+            List<Iterator<T>> runs = openRunFiles(group);
+            long count = runFileIterators.stream().mapToLong(runFileIterator -> runFileIterator.remaining).sum();
+            mergedRunFiles.add(writeRun(new MergeSortedIterator<>(comparator, null, runs), count));
+
+            // release the merged runs
+            runFileIterators.forEach(RunFileIterator::close);
+            runFileIterators.clear();
+            group.forEach(ExternalSortIterator::deleteQuietly);
+            runFiles.removeAll(group);
+        }
+        runFiles.clear();
+        runFiles.addAll(mergedRunFiles);
+    }
+
+    private List<Iterator<T>> openRunFiles(List<Path> files) {
+        List<Iterator<T>> runs = new ArrayList<>(files.size() + 1);
+        for (Path runFile : files) {
+            RunFileIterator<T> runFileIterator = new RunFileIterator<>(runFile, serializer);
+            runFileIterators.add(runFileIterator);
+            runs.add(runFileIterator);
+        }
+        return runs;
+    }
+
+    /**
+     * Write a sorted run to a new run file
+     */
+    private Path writeRun(Iterator<T> elements, long count) {
+        try {
+            Path runFile = Files.createTempFile(spillDirectory, "sort-run-", ".bin");
+            // tracked before writing, so that it is deleted by close() however writing fails (e.g. in the serializer)
+            runFiles.add(runFile);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+                    FileChannel.open(runFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)), IO_BUFFER_SIZE))) {
+                output.writeLong(count);
+                while (elements.hasNext()) {
+                    serializer.write(elements.next(), output);
+                }
+            }
+            return runFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write sort run to " + spillDirectory, e);
+        }
+    }
+
+    /**
+     * Close open run files and delete all run files
+     */
+    @Override
+    public void close() {
+        runFileIterators.forEach(RunFileIterator::close);
+        runFileIterators.clear();
+        runFiles.forEach(ExternalSortIterator::deleteQuietly);
+        runFiles.clear();
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // best effort; temporary file
+        }
+    }
+
+    /**
+     * Iterator over the elements of a run file, closing the file once all elements have been read
+     */
+    private static final class RunFileIterator<T> implements Iterator<T> {
+        private final Path runFile;
+        private final ElementSerializer<T> serializer;
+        private final DataInputStream input;
+        private long remaining;
+
+        RunFileIterator(Path runFile, ElementSerializer<T> serializer) {
+            this.runFile = runFile;
+            this.serializer = serializer;
+            try {
+                this.input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(
+                        FileChannel.open(runFile, StandardOpenOption.READ)), IO_BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open sort run " + runFile, e);
+            }
+            try {
+                this.remaining = input.readLong();
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("Unable to read sort run " + runFile, e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public T next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                T element = serializer.read(input);
+                if (--remaining == 0) {
+                    close();
+                }
+                return element;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read sort run " + runFile, e);
+            }
+        }
+
+        void close() {
+            try {
+                input.close();
+            } catch (IOException e) {
+                // read-only; nothing to lose
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Checkpoint store that persists each stream's checkpoint as a small properties file in a directory.  Checkpoints are
+ * written to a temporary file and atomically moved into place, so a crash mid-write leaves the previous checkpoint intact.
+ * Files are named by the SHA-256 hash of the stream id, so ids of any length map to fixed-length file names.
+ */
+public final class FileCheckpointStore implements CheckpointStore {
+    private static final String TOKEN_PROPERTY = "batchToken";
+    private static final String OFFSET_PROPERTY = "elementOffset";
+    private static final String FILE_SUFFIX = ".checkpoint";
+
+    private final Path directory;
+
+    /**
+     * @param directory directory to store checkpoint files in; created if it doesn't exist
+     */
+    public FileCheckpointStore(Path directory) {
+        this.directory = checkNotNull(directory, "directory is required");
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create checkpoint directory " + directory, e);
+        }
+    }
+
+    @Override
+    public Optional<BatchCheckpoint> load(String streamId) {
+        Path file = checkpointFile(streamId);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read checkpoint " + file, e);
+        }
+        return Optional.of(new BatchCheckpoint(properties.getProperty(TOKEN_PROPERTY), Long.parseLong(properties.getProperty(OFFSET_PROPERTY, "0"))));
+    }
+
+    @Override
+    public void save(String streamId, BatchCheckpoint checkpoint) {
+        checkNotNull(checkpoint, "checkpoint is required");
+        Path file = checkpointFile(streamId);
+
+        Properties properties = new Properties();
+        if (checkpoint.getBatchToken() != null) {
+            properties.setProperty(TOKEN_PROPERTY, checkpoint.getBatchToken());
+        }
+        properties.setProperty(OFFSET_PROPERTY, Long.toString(checkpoint.getElementOffset()));
+
+        try {
+            Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                    properties.store(outputStream, null);
+                }
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write checkpoint " + file, e);
+        }
+    }
+
+    @Override
+    public void clear(String streamId) {
+        Path file = checkpointFile(streamId);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to delete checkpoint " + file, e);
+        }
+    }
+
+    private Path checkpointFile(String streamId) {
+        checkNotNull(streamId, "streamId is required");
+        // stream ids are arbitrary strings of any length; hash to a file-system safe name well within file name limits
+        return directory.resolve(Hashing.sha256().hashString(streamId, StandardCharsets.UTF_8) + FILE_SUFFIX);
+    }
+}
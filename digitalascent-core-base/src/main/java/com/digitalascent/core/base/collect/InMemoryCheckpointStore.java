@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Checkpoint store that holds checkpoints in memory; useful for resuming within a process (e.g. after a retryable failure)
+ * and for testing.
+ */
+public final class InMemoryCheckpointStore implements CheckpointStore {
+    private final Map<String, BatchCheckpoint> checkpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<BatchCheckpoint> load(String streamId) {
+        checkNotNull(streamId, "streamId is required");
+        return Optional.ofNullable(checkpoints.get(streamId));
+    }
+
+    @Override
+    public void save(String streamId, BatchCheckpoint checkpoint) {
+        checkNotNull(streamId, "streamId is required");
+        checkNotNull(checkpoint, "checkpoint is required");
+        checkpoints.put(streamId, checkpoint);
+    }
+
+    @Override
+    public void clear(String streamId) {
+        checkNotNull(streamId, "streamId is required");
+        checkpoints.remove(streamId);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DataInput reading a file through a window of the file mapped into memory, re-mapping the window as reading progresses
+ * so that files larger than the maximum mapping size (2GB) can be read.
+ * <p>
+ * Only one window is mapped at a time; each is unmapped as soon as it is replaced, and on {@link #close()}, rather than
+ * when garbage collected, so that the file can be replaced or deleted once closed (which fails on Windows while a
+ * mapping remains).  Not thread-safe.
+ * </p>
+ */
+final class MappedFileDataInput implements DataInput, AutoCloseable {
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private ByteBuffer window = CLOSED;
+    private long windowPosition;
+
+    MappedFileDataInput(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.fileSize = channel.size();
+            map(0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void map(long position) throws IOException {
+        unmapWindow();
+        windowPosition = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, fileSize - position));
+    }
+
+    private void unmapWindow() {
+        ByteBuffer mapped = window;
+        // no further reads from the released mapping; reading after close fails on the closed channel
+        window = CLOSED;
+        if (mapped != CLOSED) {
+            Unmapper.unmap(mapped);
+        }
+    }
+
+    /**
+     * Ensure that the next <b>length</b> bytes are within the window (where length &lt;= the window size)
+     */
+    private void require(int length) throws IOException {
+        if (window.remaining() >= length) {
+            return;
+        }
+        long position = windowPosition + window.position();
+        if (fileSize - position < length) {
+            throw new EOFException();
+        }
+        map(position);
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            if (!window.hasRemaining()) {
+                require(1);
+            }
+            int chunk = Math.min(len - read, window.remaining());
+            window.get(b, off + read, chunk);
+            read += chunk;
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, fileSize - (windowPosition + window.position()));
+        if (skipped <= window.remaining()) {
+            window.position(window.position() + skipped);
+        } else {
+            map(windowPosition + window.position() + skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        require(Byte.BYTES);
+        return window.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        require(Short.BYTES);
+        return window.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        require(Character.BYTES);
+        return window.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        require(Integer.BYTES);
+        return window.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        require(Long.BYTES);
+        return window.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        require(Float.BYTES);
+        return window.getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        require(Double.BYTES);
+        return window.getDouble();
+    }
+
+    /**
+     * As for {@link DataInputStream#readLine()}: reads bytes (each converted to a char) up to a line terminator of
+     * {@code \n}, {@code \r} or {@code \r\n}.
+     *
+     * @return the line, without its terminator; null at the end of the file
+     */
+    @Override
+    @Nullable
+    public String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (windowPosition + window.position() < fileSize) {
+            int c = readUnsignedByte();
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c == '\r') {
+                if (windowPosition + window.position() < fileSize) {
+                    require(Byte.BYTES);
+                    if (window.get(window.position()) == '\n') {
+                        window.get();
+                    }
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        unmapWindow();
+        channel.close();
+    }
+
+    /**
+     * Releases a mapped buffer immediately; resolved reflectively as the means differs between Java 8
+     * ({@code DirectBuffer.cleaner().clean()}) and Java 9+ ({@code Unsafe.invokeCleaner}).  Where neither is available
+     * the mapping is released once the buffer is garbage collected.
+     */
+    private static final class Unmapper {
+        @Nullable
+        private static final Object UNSAFE = findUnsafe();
+        @Nullable
+        private static final Method INVOKE_CLEANER = findInvokeCleaner();
+
+        @Nullable
+        private static Object findUnsafe() {
+            try {
+                Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                return field.get(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        @Nullable
+        private static Method findInvokeCleaner() {
+            try {
+                // Java 9+
+                return UNSAFE == null ? null : UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        static void unmap(ByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+                // Java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // left to the garbage collector
+            }
+        }
+
+        private Unmapper() {
+            throw new AssertionError("Cannot instantiate " + getClass());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.BinaryOperator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Iterator that merges sorted source iterators into a single sorted sequence, holding only the head element of each
+ * source in a heap.  Elements that compare equal are returned in source order, or if a merge function is provided,
+ * collapsed into a single element.  Sources are first read on the first call to {@link #hasNext()} or {@link #next()},
+ * not on construction.
+ *
+ * @param <T> type of elements
+ */
+final class MergeSortedIterator<T> implements Iterator<T> {
+    private final Comparator<? super T> comparator;
+    private final BinaryOperator<T> mergeFunction;
+    private final PriorityQueue<Head<T>> heads;
+    private List<? extends Iterator<T>> unreadSources;
+
+    MergeSortedIterator(Comparator<? super T> comparator, @Nullable BinaryOperator<T> mergeFunction, List<? extends Iterator<T>> sources) {
+        this.comparator = checkNotNull(comparator, "comparator is required");
+        this.mergeFunction = mergeFunction;
+        checkNotNull(sources, "sources is required");
+        for (Iterator<T> source : sources) {
+            checkNotNull(source, "source is required");
+        }
+
+        // ties are broken by source order, for a stable merge
+        Comparator<Head<T>> headComparator = (head1, head2) -> comparator.compare(head1.element, head2.element);
+        this.heads = new PriorityQueue<>(Math.max(1, sources.size()), headComparator.thenComparingInt(head -> head.sourceIndex));
+        this.unreadSources = sources;
+    }
+
+    /**
+     * Read the first element of each source into the heap, once; deferred from construction so that creating a merged
+     * stream doesn't wait on its sources
+     */
+    private void readHeads() {
+        if (unreadSources == null) {
+            return;
+        }
+        List<? extends Iterator<T>> sources = unreadSources;
+        unreadSources = null;
+        for (int i = 0; i < sources.size(); i++) {
+            Iterator<T> source = sources.get(i);
+            if (source.hasNext()) {
+                heads.add(new Head<>(i, source, source.next()));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        readHeads();
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T element = advance(heads.poll());
+        if (mergeFunction != null) {
+            while (!heads.isEmpty() && comparator.compare(heads.peek().element, element) == 0) {
+                element = mergeFunction.apply(element, advance(heads.poll()));
+            }
+        }
+        return element;
+    }
+
+    /**
+     * Advance a head to its source's next element, re-adding it to the heap unless the source is exhausted
+     *
+     * @return the head's previous element
+     */
+    private T advance(Head<T> head) {
+        T element = head.element;
+        if (head.source.hasNext()) {
+            T nextElement = head.source.next();
+            if (comparator.compare(element, nextElement) > 0) {
+                throw new IllegalStateException(String.format("Source %s is not sorted: '%s' follows '%s'", head.sourceIndex, nextElement, element));
+            }
+            head.element = nextElement;
+            heads.add(head);
+        }
+        return element;
+    }
+
+    private static final class Head<T> {
+        private final int sourceIndex;
+        private final Iterator<T> source;
+        private T element;
+
+        Head(int sourceIndex, Iterator<T> source, T element) {
+            this.sourceIndex = sourceIndex;
+            this.source = source;
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import org.reactivestreams.Publisher;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reactive Streams adapters for batch and continuation-token sources, where subscriber demand drives retrieval of
+ * source data.  Unlike {@link MoreStreams} and {@link ContinuationTokenSpliterator} no thread is parked waiting on a queue.
+ */
+public final class MorePublishers {
+
+    /**
+     * Create a publisher that lazy-loads batches of elements from the provided supplier as subscribers request them.
+     * Batches are loaded synchronously by the thread signalling demand (calling {@code Subscription.request}).
+     *
+     * @param batchSupplier the supplier that provides batches to publish
+     * @param <T>           type of element
+     * @return Publisher of elements that are lazy-loaded in batches from the provided supplier
+     */
+    public static <T> Publisher<T> batchLoadingPublisher(BatchSupplier<T> batchSupplier) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        return new BatchSupplierPublisher<>(batchSupplier);
+    }
+
+    /**
+     * Create a publisher of responses from the provided continuation-token source.  Requests are made asynchronously,
+     * at most one at a time, and only while subscribers have outstanding demand.
+     *
+     * @param continuableResponseSource the source of chained responses
+     * @param <ResponseT>               type of response
+     * @return Publisher of responses from the provided source
+     */
+    public static <ResponseT> Publisher<ResponseT> continuationPublisher(ContinuableResponseSource<ResponseT> continuableResponseSource) {
+        checkNotNull(continuableResponseSource, "continuableResponseSource is required");
+        return new ContinuableResponsePublisher<>(continuableResponseSource);
+    }
+
+    private MorePublishers() {
+        throw new AssertionError("Cannot instantiate " + getClass());
+    }
+}
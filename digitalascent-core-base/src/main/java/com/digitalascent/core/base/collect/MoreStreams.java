@@ -18,17 +18,38 @@ package com.digitalascent.core.base.collect;
 
 
 import com.digitalascent.core.base.concurrent.Threads;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Uninterruptibles;
 
+import javax.annotation.Nullable;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -37,6 +58,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Verify.verify;
 
 public final class MoreStreams {
+    private static final int MERGE_PREFETCH_BATCHES = 2;
 
     /**
      * Create a stream that synchronously lazy-loads batches of elements from the provided supplier.
@@ -48,17 +70,77 @@ public final class MoreStreams {
     public static <T> Stream<T> batchLoadingStream(BatchSupplier<T> batchSupplier) {
         checkNotNull(batchSupplier, "batchSupplier is required");
 
-        Stream<Iterable<T>> batchStream = StreamSupport.stream(
-                Spliterators.spliteratorUnknownSize(new BatchIterator<>(batchSupplier), Spliterator.ORDERED | Spliterator.IMMUTABLE),
-                false);
+        Spliterator<Iterable<T>> batchSpliterator = Spliterators.spliteratorUnknownSize(new BatchIterator<>(batchSupplier), Spliterator.ORDERED | Spliterator.IMMUTABLE);
+        return StreamSupport.stream(new BatchElementSpliterator<>(batchSpliterator), false);
+    }
 
-        return batchStream.flatMap(i -> StreamSupport.stream(i.spliterator(), false));
+    /**
+     * Create a stream that synchronously lazy-loads batches of int values from the provided supplier, as for
+     * {@link #batchLoadingStream(BatchSupplier)}.  Values are streamed from the batches' arrays without boxing.
+     *
+     * @param batchSupplier the supplier that provides batches to expose in the stream
+     * @return IntStream of values that are lazy-loaded in batches from the provided supplier
+     */
+    public static IntStream intBatchLoadingStream(IntBatchSupplier batchSupplier) {
+        return StreamSupport.intStream(new PrimitiveBatchSpliterator.OfInt(batchSupplier), false);
+    }
+
+    /**
+     * Create a stream that synchronously lazy-loads batches of long values from the provided supplier, as for
+     * {@link #batchLoadingStream(BatchSupplier)}.  Values are streamed from the batches' arrays without boxing.
+     *
+     * @param batchSupplier the supplier that provides batches to expose in the stream
+     * @return LongStream of values that are lazy-loaded in batches from the provided supplier
+     */
+    public static LongStream longBatchLoadingStream(LongBatchSupplier batchSupplier) {
+        return StreamSupport.longStream(new PrimitiveBatchSpliterator.OfLong(batchSupplier), false);
+    }
+
+    /**
+     * Create a stream that synchronously lazy-loads batches of double values from the provided supplier, as for
+     * {@link #batchLoadingStream(BatchSupplier)}.  Values are streamed from the batches' arrays without boxing.
+     *
+     * @param batchSupplier the supplier that provides batches to expose in the stream
+     * @return DoubleStream of values that are lazy-loaded in batches from the provided supplier
+     */
+    public static DoubleStream doubleBatchLoadingStream(DoubleBatchSupplier batchSupplier) {
+        return StreamSupport.doubleStream(new PrimitiveBatchSpliterator.OfDouble(batchSupplier), false);
+    }
+
+    /**
+     * Create a stream that synchronously lazy-loads batches of elements from the provided supplier, resuming from the
+     * checkpoint saved for <b>streamId</b> by a previous (e.g. crashed or timed-out) run.  As elements are consumed the
+     * checkpoint is saved each time a batch is fully consumed, and every <b>checkpointInterval</b> elements within a batch;
+     * once all elements have been consumed the checkpoint is cleared.
+     * <p>
+     * Resuming part-way through a batch requires the supplier to return the same elements, in the same order, for the
+     * same token.  Elements consumed after the last saved checkpoint are delivered again on resumption.
+     * </p>
+     *
+     * @param streamId           identifies the stream's checkpoint in the store
+     * @param batchSupplier      the supplier that provides batches to expose in the stream
+     * @param checkpointStore    store for the stream's checkpoint
+     * @param checkpointInterval number of elements consumed within a batch between checkpoints; 0 to only checkpoint at batch boundaries
+     * @param <T>                type of element
+     * @return Stream of elements, starting after the last checkpointed element
+     */
+    public static <T> Stream<T> resumableBatchLoadingStream(String streamId, BatchSupplier<T> batchSupplier, CheckpointStore checkpointStore, int checkpointInterval) {
+        checkNotNull(streamId, "streamId is required");
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        checkNotNull(checkpointStore, "checkpointStore is required");
+        checkArgument(checkpointInterval >= 0, "checkpointInterval must be >= 0 : %s", checkpointInterval);
+
+        return StreamSupport.stream(new CheckpointingBatchSpliterator<>(streamId, batchSupplier, checkpointStore, checkpointInterval), false);
     }
 
     /**
      * Create a stream that <i>asynchronously</i> lazy-loads batches of elements from the provided supplier.
      * Useful for suppliers that load batches from API calls to overlap producer network/processing latency
      * with consumption of batches.
+     * <p>
+     * Streams that may not be fully consumed (e.g. short-circuited with {@code findFirst()} or {@code limit()}) should be
+     * closed, for example using try-with-resources; closing the stream cancels the producer and releases queued batches.
+     * </p>
      *
      * @param batchSupplier the supplier that provides batches to expose in the stream
      * @param <T>           type of element
@@ -66,50 +148,497 @@ public final class MoreStreams {
      * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from the provided supplier
      */
     public static <T> Stream<T> queuedBatchLoadingStream(BatchSupplier<T> batchSupplier, int queueSize) {
+        return queuedBatchLoadingStreamBuilder(batchSupplier)
+                .withQueueSize(queueSize)
+                .build();
+    }
+
+    /**
+     * Create a stream that <i>asynchronously</i> lazy-loads batches of elements from the provided supplier, with the
+     * producer run by the provided executor (e.g. {@link BatchProducerExecutors#shared()}) rather than a new thread.
+     * <p>
+     * The producer occupies an executor thread until all batches are loaded, blocking while the queue is full; bounded
+     * executors must have enough threads for the number of concurrently consumed streams.
+     * </p>
+     *
+     * @param batchSupplier the supplier that provides batches to expose in the stream
+     * @param queueSize     number of batches to allow to be queued before blocking the supplier from adding more batches
+     * @param executor      executor to run the batch producer
+     * @param <T>           type of element
+     * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from the provided supplier
+     */
+    public static <T> Stream<T> queuedBatchLoadingStream(BatchSupplier<T> batchSupplier, int queueSize, Executor executor) {
+        return queuedBatchLoadingStreamBuilder(batchSupplier)
+                .withQueueSize(queueSize)
+                .withExecutor(executor)
+                .build();
+    }
+
+    /**
+     * Create a builder for a stream that <i>asynchronously</i> lazy-loads batches of elements from the provided supplier,
+     * allowing the producer's executor and limits on queued batches (count and total weight, e.g. bytes) to be configured.
+     *
+     * @param batchSupplier the supplier that provides batches to expose in the stream
+     * @param <T>           type of element
+     * @return builder for the stream
+     */
+    public static <T> QueuedBatchStreamBuilder<T> queuedBatchLoadingStreamBuilder(BatchSupplier<T> batchSupplier) {
         checkNotNull(batchSupplier, "batchSupplier is required");
-        checkArgument(queueSize > 0, "queueSize must be > 0 : %s", queueSize);
+        return new QueuedBatchStreamBuilder<>(batchSupplier);
+    }
+
+    /**
+     * Create a stream that <i>asynchronously</i> lazy-loads batches of elements from the provided supplier, as for
+     * {@link #queuedBatchLoadingStream(BatchSupplier, int)}, adapting the number of queued batches and the page size hint
+     * passed to the supplier to keep the consumer busy without buffering more than it needs.
+     * <p>
+     * The queue limit tracks the number of batches the consumer processes during one fetch; the page size hint grows when
+     * the consumer waits for batches and shrinks when the producer waits for queue space.  See {@link AdaptiveBatchSettings}
+     * for the bounds of both.
+     * </p>
+     *
+     * @param batchSupplier the supplier that provides batches, given a page size hint
+     * @param settings      bounds for the queue size and page size hint
+     * @param <T>           type of element
+     * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from the provided supplier
+     */
+    public static <T> Stream<T> adaptiveBatchLoadingStream(PageSizeHintedBatchSupplier<T> batchSupplier, AdaptiveBatchSettings settings) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        checkNotNull(settings, "settings is required");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(1, Threads.defaultThreadFactory("MoreStreams.adaptiveBatchLoadingStream:" + batchSupplier.getClass()));
+        try {
+            return adaptiveBatchLoadingStream(batchSupplier, settings, executorService);
+        } finally {
+            // producer has been submitted; thread exits once the producer completes
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Create an adaptive stream as for {@link #adaptiveBatchLoadingStream(PageSizeHintedBatchSupplier, AdaptiveBatchSettings)},
+     * with the producer run by the provided executor.
+     *
+     * @param batchSupplier the supplier that provides batches, given a page size hint
+     * @param settings      bounds for the queue size and page size hint
+     * @param executor      executor to run the batch producer
+     * @param <T>           type of element
+     * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from the provided supplier
+     */
+    public static <T> Stream<T> adaptiveBatchLoadingStream(PageSizeHintedBatchSupplier<T> batchSupplier, AdaptiveBatchSettings settings, Executor executor) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        checkNotNull(settings, "settings is required");
+        checkNotNull(executor, "executor is required");
 
-        BlockingQueue<Iterable<T>> queue = new ArrayBlockingQueue<>(queueSize);
-        Iterable<T> poison = new ArrayList<>();
+        AdaptivePrefetchController controller = new AdaptivePrefetchController(settings);
+        BatchQueue<T> batchQueue = new BatchQueue<>(controller);
 
-        // load batches in a separate thread, governed by the queue size (blocking when queue is full)
-        // only use a single thread as batches are chained (the result of one batch has the token to load the next batch)
-        ExecutorService executorService = Executors.newFixedThreadPool(1, Threads.defaultThreadFactory("MoreStreams.batchLoadingStream:" + batchSupplier.getClass()));
-        Future<?> batchProducerFuture = executorService.submit(() -> {
+        // pass the current page size hint to the supplier, recording the fetch latency
+        BatchSupplier<T> adaptiveBatchSupplier = nextBatchToken -> {
+            long fetchStart = System.nanoTime();
+            Batch<T> batch = batchSupplier.nextBatch(nextBatchToken, controller.getPageSize());
+            controller.onFetch(System.nanoTime() - fetchStart);
+            return batch;
+        };
+
+        ListenableFutureTask<Void> batchProducerFuture = ListenableFutureTask.create(() -> {
             try {
-                boolean done = false;
-                Batch<T> currentBatch = Batch.emptyBatch();
-                String lastToken = null;
-                while (!done) {
-                    currentBatch = batchSupplier.nextBatch(currentBatch.getNextToken());
-
-                    verify(currentBatch != null, "Null batch returned from %s", batchSupplier.getClass());
-                    verify(lastToken == null || !Objects.equals(lastToken, currentBatch.getNextToken()), "Received the same batch token '%s' for two batches, aborting", lastToken);
-
-                    Uninterruptibles.putUninterruptibly(queue, currentBatch.getIterable());
-                    done = currentBatch.getNextToken() == null;
-                    lastToken = currentBatch.getNextToken();
-                }
+                batchQueue.load(adaptiveBatchSupplier);
             } finally {
-                // always poison the queue, notifying consumer that this producer is finished, even in the event of an exception here (which will propagate to consumer)
-                Uninterruptibles.putUninterruptibly(queue, poison);
+                batchQueue.finish();
             }
+            return null;
         });
-        executorService.shutdown();
+        executor.execute(batchProducerFuture);
+
+        return batchQueue.stream(batchProducerFuture);
+    }
+
+    /**
+     * Create a stream that <i>asynchronously</i> lazy-loads batches of elements from the provided asynchronous supplier.
+     * Up to <b>prefetch</b> completed batches are buffered ahead of the consumer; each fetch is chained from the completion
+     * of the previous one, so unlike {@link #queuedBatchLoadingStream(BatchSupplier, int)} no producer thread is created.
+     * Closing the stream cancels any in-flight fetch and releases buffered batches.
+     *
+     * @param batchSupplier the supplier that asynchronously provides batches to expose in the stream
+     * @param prefetch      number of completed batches to buffer ahead of the consumer before pausing fetching
+     * @param <T>           type of element
+     * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from the provided supplier
+     */
+    public static <T> Stream<T> asyncBatchLoadingStream(AsyncBatchSupplier<T> batchSupplier, int prefetch) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        checkArgument(prefetch > 0, "prefetch must be > 0 : %s", prefetch);
+
+        AsyncBatchSpliterator<T> spliterator = new AsyncBatchSpliterator<>(batchSupplier, prefetch);
+        return StreamSupport.stream(new BatchElementSpliterator<>(spliterator), false)
+                .onClose(spliterator::close);
+    }
+
+    /**
+     * Create a stream that <i>asynchronously</i> lazy-loads batches of elements from multiple independent partitions of a source,
+     * such as S3 prefixes or DynamoDB scan segments.  Each partition's batches are chained as for
+     * {@link #queuedBatchLoadingStream(BatchSupplier, int)}, however up to <b>parallelism</b> partitions are loaded concurrently,
+     * each by its own producer, into a single shared queue.
+     * <p>
+     * Elements are ordered within a partition; no ordering is guaranteed across partitions.  A failure loading any partition
+     * cancels the remaining partitions and is propagated to the consumer.  Closing the stream cancels all producers.
+     * </p>
+     *
+     * @param partitions           the partitions to load; each is loaded exactly once
+     * @param batchSupplierFactory creates the supplier that provides batches for a given partition
+     * @param parallelism          maximum number of partitions to load concurrently
+     * @param queueSize            number of batches (across all partitions) to allow to be queued before blocking the producers from adding more batches
+     * @param <P>                  type of partition
+     * @param <T>                  type of element
+     * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from each partition
+     */
+    public static <P, T> Stream<T> partitionedBatchLoadingStream(Collection<P> partitions, Function<? super P, BatchSupplier<T>> batchSupplierFactory,
+                                                                 int parallelism, int queueSize) {
+        checkNotNull(partitions, "partitions is required");
+        checkNotNull(batchSupplierFactory, "batchSupplierFactory is required");
+        checkArgument(parallelism > 0, "parallelism must be > 0 : %s", parallelism);
 
-        // pull each batch off the queue and return a stream for it
-        return queueStream(queue, poison, batchProducerFuture).flatMap(batch -> StreamSupport.stream(batch.spliterator(), false));
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, partitions.size())),
+                Threads.defaultThreadFactory("MoreStreams.partitionedBatchLoadingStream:" + batchSupplierFactory.getClass()));
+        try {
+            return partitionedBatchLoadingStream(partitions, batchSupplierFactory, parallelism, queueSize, executorService);
+        } finally {
+            // producers have been submitted; threads exit once the producers complete
+            executorService.shutdown();
+        }
     }
 
     /**
-     * Creates a stream supplying elements from the provided BlockingQueue, terminating when the <b>poison</b> element is encountered
+     * Create a stream that <i>asynchronously</i> lazy-loads batches of elements from multiple independent partitions of a source,
+     * as for {@link #partitionedBatchLoadingStream(Collection, Function, int, int)}, with the producers run by the provided
+     * executor (e.g. {@link BatchProducerExecutors#shared()}) rather than new threads.
      *
-     * @param queue          the queue to extract elements from
-     * @param poison         element that terminates the stream
-     * @param producerFuture future for the producer of elements consumed by this queue, used to propagate exceptions
+     * @param partitions           the partitions to load; each is loaded exactly once
+     * @param batchSupplierFactory creates the supplier that provides batches for a given partition
+     * @param parallelism          maximum number of partitions to load concurrently
+     * @param queueSize            number of batches (across all partitions) to allow to be queued before blocking the producers from adding more batches
+     * @param executor             executor to run the batch producers
+     * @param <P>                  type of partition
+     * @param <T>                  type of element
+     * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from each partition
      */
-    private static <T> Stream<T> queueStream(BlockingQueue<T> queue, T poison, Future<?> producerFuture) {
-        return StreamSupport.stream(new QueueSpliterator<>(queue, poison, producerFuture), false);
+    public static <P, T> Stream<T> partitionedBatchLoadingStream(Collection<P> partitions, Function<? super P, BatchSupplier<T>> batchSupplierFactory,
+                                                                 int parallelism, int queueSize, Executor executor) {
+        checkNotNull(partitions, "partitions is required");
+        checkNotNull(batchSupplierFactory, "batchSupplierFactory is required");
+        checkArgument(parallelism > 0, "parallelism must be > 0 : %s", parallelism);
+        checkArgument(queueSize > 0, "queueSize must be > 0 : %s", queueSize);
+        checkNotNull(executor, "executor is required");
+
+        Queue<P> pendingPartitions = new ConcurrentLinkedQueue<>(partitions);
+        if (pendingPartitions.isEmpty()) {
+            return Stream.empty();
+        }
+
+        BatchQueue<T> batchQueue = new BatchQueue<>(queueSize);
+
+        // each partition is an independent chain of batches, so each can be loaded by its own producer;
+        // producers take partitions until none remain, limiting concurrency to 'parallelism' regardless of executor size
+        int producerCount = Math.min(parallelism, pendingPartitions.size());
+        List<ListenableFutureTask<Void>> producerFutures = new ArrayList<>(producerCount);
+        for (int i = 0; i < producerCount; i++) {
+            producerFutures.add(ListenableFutureTask.create(() -> {
+                P partition;
+                while (!batchQueue.isClosed() && (partition = pendingPartitions.poll()) != null) {
+                    BatchSupplier<T> batchSupplier = batchSupplierFactory.apply(partition);
+                    verify(batchSupplier != null, "Null batchSupplier returned from %s for partition %s", batchSupplierFactory.getClass(), partition);
+                    batchQueue.load(batchSupplier);
+                }
+                return null;
+            }));
+        }
+
+        // fails as soon as any partition fails, otherwise completes once all partitions are loaded
+        ListenableFuture<List<Void>> allProducersFuture = Futures.allAsList(producerFutures);
+        allProducersFuture.addListener(() -> {
+            if (!isSuccessful(allProducersFuture)) {
+                // no point loading the remaining partitions; the consumer will receive the exception
+                pendingPartitions.clear();
+                producerFutures.forEach(future -> future.cancel(true));
+            }
+            // poison the queue once, notifying consumer that all producers are finished (or one has failed)
+            batchQueue.finish();
+        }, MoreExecutors.directExecutor());
+
+        try {
+            producerFutures.forEach(executor::execute);
+        } catch (RuntimeException e) {
+            // e.g. rejected by a saturated executor; release the producers that were started
+            batchQueue.close();
+            allProducersFuture.cancel(true);
+            throw e;
+        }
+
+        return batchQueue.stream(allProducersFuture);
+    }
+
+    /**
+     * Create a stream that merges the sorted elements of the provided suppliers into a single sorted stream, without
+     * materializing the sources; each source is loaded by its own producer, prefetching {@value #MERGE_PREFETCH_BATCHES}
+     * batches, and only the head element of each source is held for merging.  Elements that compare equal are streamed
+     * in the order of their sources.  Creating the stream doesn't wait for any source; the first element of each source
+     * is awaited when the stream is first consumed.
+     * <p>
+     * Each source must be sorted by <b>comparator</b>; an {@link IllegalStateException} is thrown on encountering an
+     * out-of-order element.  Streams that may not be fully consumed should be closed, which closes the source streams.
+     * </p>
+     *
+     * @param comparator     order of the sources' elements
+     * @param batchSuppliers the suppliers that provide sorted batches to merge
+     * @param <T>            type of element
+     * @return sorted Stream of the elements of all sources
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs") // batchSuppliers is only copied
+    public static <T> Stream<T> mergeSorted(Comparator<? super T> comparator, BatchSupplier<T>... batchSuppliers) {
+        checkNotNull(batchSuppliers, "batchSuppliers is required");
+        return mergeSorted(comparator, null, ImmutableList.copyOf(batchSuppliers));
+    }
+
+    /**
+     * Create a stream that merges the sorted elements of the provided suppliers into a single sorted stream, as for
+     * {@link #mergeSorted(Comparator, BatchSupplier[])}, optionally collapsing elements that compare equal (within or
+     * across sources) into one element using <b>mergeFunction</b>; for example {@code (a, b) -> a} to de-duplicate,
+     * keeping the element from the first source.
+     *
+     * @param comparator     order of the sources' elements
+     * @param mergeFunction  if provided, merges elements that compare equal, in source order
+     * @param batchSuppliers the suppliers that provide sorted batches to merge
+     * @param <T>            type of element
+     * @return sorted Stream of the (merged) elements of all sources
+     */
+    public static <T> Stream<T> mergeSorted(Comparator<? super T> comparator, @Nullable BinaryOperator<T> mergeFunction,
+                                            List<? extends BatchSupplier<T>> batchSuppliers) {
+        checkNotNull(comparator, "comparator is required");
+        checkNotNull(batchSuppliers, "batchSuppliers is required");
+
+        List<Stream<T>> sourceStreams = new ArrayList<>(batchSuppliers.size());
+        List<Iterator<T>> sources = new ArrayList<>(batchSuppliers.size());
+        try {
+            for (BatchSupplier<T> batchSupplier : batchSuppliers) {
+                Stream<T> sourceStream = queuedBatchLoadingStream(batchSupplier, MERGE_PREFETCH_BATCHES);
+                sourceStreams.add(sourceStream);
+                sources.add(sourceStream.iterator());
+            }
+            Spliterator<T> mergedSpliterator = Spliterators.spliteratorUnknownSize(new MergeSortedIterator<>(comparator, mergeFunction, sources), Spliterator.ORDERED);
+            return StreamSupport.stream(mergedSpliterator, false)
+                    .onClose(() -> sourceStreams.forEach(Stream::close));
+        } catch (RuntimeException | Error e) {
+            sourceStreams.forEach(Stream::close);
+            throw e;
+        }
+    }
+
+    /**
+     * Map the elements of a stream to asynchronous results (e.g. an async API call per listed object), keeping up to
+     * <b>maxInFlight</b> results outstanding.  Upstream elements are only pulled as results are consumed, so a slow
+     * consumer applies backpressure to the upstream stream.
+     * <p>
+     * A failed result fails the returned stream with the result's exception (checked exceptions are wrapped).  Closing
+     * the returned stream cancels outstanding results and closes the upstream stream.
+     * </p>
+     * <pre>
+     * Stream&lt;HeadObjectResponse&gt; heads = MoreStreams.mapAsync(objects,
+     *      object -&gt; s3AsyncClient.headObject(b -&gt; b.bucket(bucket).key(object.key())), 32, true);
+     * </pre>
+     *
+     * @param stream      the upstream elements
+     * @param mapper      maps an element to its asynchronous result; must not return null
+     * @param maxInFlight maximum number of results outstanding
+     * @param ordered     true to stream results in upstream order; false to stream them as they complete, allowing slow
+     *                    results to be overtaken
+     * @param <T>         type of upstream element
+     * @param <R>         type of result
+     * @return Stream of results
+     */
+    public static <T, R> Stream<R> mapAsync(Stream<T> stream, Function<? super T, ? extends CompletableFuture<R>> mapper, int maxInFlight, boolean ordered) {
+        checkNotNull(stream, "stream is required");
+
+        AsyncMapSpliterator<T, R> spliterator = new AsyncMapSpliterator<>(stream.spliterator(), mapper, maxInFlight, ordered);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(spliterator::close)
+                .onClose(stream::close);
+    }
+
+    /**
+     * Sort the elements of a stream that may not fit in memory (e.g. a large listing sorted by size), by sorting runs
+     * of elements within <b>memoryBudget</b> and spilling each run to a binary run file in <b>spillDirectory</b>; the
+     * runs are then merged lazily into the returned stream.  If all elements fit within the budget they are sorted in
+     * memory.  The sort is stable.
+     * <p>
+     * The upstream stream is consumed when the first element is requested.  Run files are deleted once the returned
+     * stream has been fully consumed or is closed; streams that may not be fully consumed should be closed.  At most 64
+     * runs are merged at once (each with an open file and a read buffer); beyond that, runs are first merged into longer
+     * run files, re-reading and re-writing the spilled elements once per additional merge pass.
+     * </p>
+     *
+     * @param stream         the elements to sort
+     * @param comparator     order of the elements
+     * @param serializer     writes and reads elements to and from run files
+     * @param weigher        computes the weight of an element in memory, e.g. estimated bytes; must be >= 0
+     * @param memoryBudget   maximum total weight of the elements sorted in memory, before spilling them to a run file
+     * @param spillDirectory directory for temporary run files
+     * @param <T>            type of element
+     * @return sorted Stream of the elements
+     */
+    public static <T> Stream<T> sorted(Stream<T> stream, Comparator<? super T> comparator, ElementSerializer<T> serializer,
+                                       ToLongFunction<? super T> weigher, long memoryBudget, Path spillDirectory) {
+        checkNotNull(stream, "stream is required");
+
+        ExternalSortIterator<T> iterator = new ExternalSortIterator<>(stream.iterator(), comparator, serializer, weigher, memoryBudget, spillDirectory);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close)
+                .onClose(stream::close);
+    }
+
+    /**
+     * Stream the changes between a listing (e.g. of S3 objects) and a snapshot of the previous listing, such that
+     * processing scales with the changes rather than the size of the listing.  The listing must be sorted by key, as
+     * defined by <b>keyOrder</b> (without duplicate keys); it is merged with the snapshot in key order, emitting entries
+     * that were added, removed, or (as determined by <b>unchanged</b>) modified.  If there is no snapshot file all
+     * entries are added.
+     * <p>
+     * As the listing is read it is written to a new snapshot, which replaces <b>snapshotFile</b> once the returned stream
+     * has been fully consumed; if the stream is closed before then (e.g. on failure) the previous snapshot is retained,
+     * and the next diff is against the previous snapshot.  Snapshots are compact binary files, written using
+     * <b>serializer</b> (only the fields needed to detect changes need be serialized), and read through a memory mapping.
+     * </p>
+     * <pre>
+     * try (Stream&lt;SnapshotChange&lt;S3Object&gt;&gt; changes = MoreStreams.snapshotDiff(objects, Comparator.comparing(S3Object::key),
+     *      (previous, current) -&gt; previous.eTag().equals(current.eTag()), serializer, snapshotFile)) {
+     *      changes.forEach(this::process);
+     * }
+     * </pre>
+     *
+     * @param listing      the current entries, sorted by key
+     * @param keyOrder     order of entries by key; entries with the same key are the same entry
+     * @param unchanged    tests whether an entry is unchanged from its previous version in the snapshot
+     * @param serializer   writes and reads entries to and from snapshots
+     * @param snapshotFile file containing the snapshot of the previous listing; replaced with the snapshot of this listing
+     * @param <T>          type of entry
+     * @return Stream of changes, in key order
+     */
+    public static <T> Stream<SnapshotChange<T>> snapshotDiff(Stream<T> listing, Comparator<? super T> keyOrder, BiPredicate<? super T, ? super T> unchanged,
+                                                            ElementSerializer<T> serializer, Path snapshotFile) {
+        checkNotNull(listing, "listing is required");
+
+        SnapshotDiffIterator<T> iterator = new SnapshotDiffIterator<>(listing.iterator(), keyOrder, unchanged, serializer, snapshotFile);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close)
+                .onClose(listing::close);
+    }
+
+    /**
+     * Create streams that each contain all elements from the provided supplier, fetching each batch once and delivering it
+     * to every stream; useful for multiple passes over an expensive source, such as an S3 listing.
+     * <p>
+     * Each stream may lag behind the producer by up to <b>lagWindow</b> batches; the producer blocks once any stream's window
+     * is full, so the slowest stream governs the pace.  As such <b>the streams must be consumed concurrently</b> (e.g. each on
+     * its own thread), and streams that won't be fully consumed must be closed; a closed stream no longer receives batches,
+     * and closing all streams cancels the producer.  A failure loading batches is propagated to all streams.
+     * </p>
+     * <p>
+     * Batches are shared across streams; batches that are not {@link Collection}s are copied, so that each stream can iterate them.
+     * </p>
+     *
+     * @param batchSupplier the supplier that provides batches to expose in the streams
+     * @param consumers     number of streams to create
+     * @param lagWindow     number of batches to allow to be queued for each stream before blocking the producer
+     * @param <T>           type of element
+     * @return streams of all elements loaded in batches from the provided supplier, one per consumer
+     */
+    public static <T> List<Stream<T>> broadcast(BatchSupplier<T> batchSupplier, int consumers, int lagWindow) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(1, Threads.defaultThreadFactory("MoreStreams.broadcast:" + batchSupplier.getClass()));
+        try {
+            return broadcast(batchSupplier, consumers, lagWindow, executorService);
+        } finally {
+            // producer has been submitted; thread exits once the producer completes
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Create streams that each contain all elements from the provided supplier, as for
+     * {@link #broadcast(BatchSupplier, int, int)}, with the producer run by the provided executor.
+     *
+     * @param batchSupplier the supplier that provides batches to expose in the streams
+     * @param consumers     number of streams to create
+     * @param lagWindow     number of batches to allow to be queued for each stream before blocking the producer
+     * @param executor      executor to run the batch producer
+     * @param <T>           type of element
+     * @return streams of all elements loaded in batches from the provided supplier, one per consumer
+     */
+    public static <T> List<Stream<T>> broadcast(BatchSupplier<T> batchSupplier, int consumers, int lagWindow, Executor executor) {
+        checkNotNull(batchSupplier, "batchSupplier is required");
+        checkArgument(consumers > 0, "consumers must be > 0 : %s", consumers);
+        checkArgument(lagWindow > 0, "lagWindow must be > 0 : %s", lagWindow);
+        checkNotNull(executor, "executor is required");
+
+        List<BatchQueue<T>> batchQueues = new ArrayList<>(consumers);
+        for (int i = 0; i < consumers; i++) {
+            batchQueues.add(new BatchQueue<>(lagWindow, true, null, null, 0, null));
+        }
+
+        ListenableFutureTask<Void> batchProducerFuture = ListenableFutureTask.create(() -> {
+            try {
+                broadcastBatches(batchSupplier, batchQueues);
+            } finally {
+                // notify each consumer that the producer is finished, even in the event of an exception (which will propagate to consumers)
+                batchQueues.forEach(BatchQueue::finish);
+            }
+            return null;
+        });
+
+        // the producer is only cancelled once all consumers have closed their streams
+        AtomicInteger openConsumers = new AtomicInteger(consumers);
+        Runnable consumerCloseAction = () -> {
+            if (openConsumers.decrementAndGet() == 0) {
+                batchProducerFuture.cancel(true);
+            }
+        };
+        List<Stream<T>> streams = new ArrayList<>(consumers);
+        for (BatchQueue<T> batchQueue : batchQueues) {
+            streams.add(batchQueue.stream(batchProducerFuture, consumerCloseAction));
+        }
+
+        executor.execute(batchProducerFuture);
+        return streams;
+    }
+
+    private static <T> void broadcastBatches(BatchSupplier<T> batchSupplier, List<BatchQueue<T>> batchQueues) throws InterruptedException {
+        BatchChains.fetchBatches(batchSupplier, null, batch -> {
+            Batch<T> sharedBatch = batch;
+            if (sharedBatch.getSize() == Batch.UNKNOWN_SIZE) {
+                // may only be iterable once; copy for multiple consumers
+                sharedBatch = new Batch<>(batch.getNextToken(), ImmutableList.copyOf(batch.getIterable()));
+            }
+
+            // blocks while any open consumer's window is full; stops once all consumers have closed
+            boolean delivered = false;
+            for (BatchQueue<T> batchQueue : batchQueues) {
+                delivered |= batchQueue.put(sharedBatch);
+            }
+            return delivered;
+        });
+    }
+
+    private static boolean isSuccessful(Future<?> future) {
+        if (future.isCancelled()) {
+            return false;
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(future);
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        }
     }
 
     private MoreStreams() {
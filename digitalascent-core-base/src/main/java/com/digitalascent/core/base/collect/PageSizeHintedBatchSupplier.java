@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import javax.annotation.Nullable;
+
+/**
+ * Supplier of batches that accepts a hint for the number of elements to return in the next batch, allowing the page
+ * size to be adapted to how quickly batches are consumed.
+ *
+ * @see MoreStreams#adaptiveBatchLoadingStream(PageSizeHintedBatchSupplier, AdaptiveBatchSettings)
+ */
+@FunctionalInterface
+public interface PageSizeHintedBatchSupplier<T> {
+    /**
+     * Retrieve next batch of items
+     * <p>
+     * Example usage:
+     * <pre>
+     * return MoreStreams.adaptiveBatchLoadingStream((nextBatchToken, pageSizeHint) -> {
+     *      describeParametersRequest.setNextToken(nextBatchToken);
+     *      describeParametersRequest.setMaxResults(pageSizeHint);
+     *      DescribeParametersResult result = ssm.describeParameters(describeParametersRequest);
+     *      return new Batch<>( result.getNextToken(),result.getParameters() );
+     * }, new AdaptiveBatchSettings(1, 10, 10, 50));
+     * </pre>
+     *
+     * @param nextBatchToken Token to request next batch of data (may be null)
+     * @param pageSizeHint   suggested number of elements for the batch (e.g. S3 maxKeys, SSM MaxResults); suppliers may return more or fewer
+     * @return Batch object representing retrieved batch; use Batch.emptyBatch() to represent empty batch; must not be null
+     */
+    Batch<T> nextBatch(@Nullable String nextBatchToken, int pageSizeHint);
+}
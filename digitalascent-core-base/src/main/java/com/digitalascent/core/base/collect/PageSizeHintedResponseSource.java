@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Source of responses in a chained continuation-token model, as for {@link ContinuableResponseSource}, that accepts a
+ * hint for the number of elements to return in the next response, allowing the page size to be adapted to how quickly
+ * responses are consumed.
+ *
+ * @param <ResponseT> type of response
+ * @see ContinuationTokenSpliterator#ContinuationTokenSpliterator(PageSizeHintedResponseSource, AdaptiveBatchSettings, BatchStreamListener, java.util.function.ToIntFunction)
+ */
+@FunctionalInterface
+public interface PageSizeHintedResponseSource<ResponseT> {
+    /**
+     * @param previousResponse the previous response, with the continuation token for the next request; null for the
+     *                         first request
+     * @param pageSizeHint     suggested number of elements for the response (e.g. S3 maxKeys); sources may return more
+     *                         or fewer
+     * @return the next response, or null if there are no further responses
+     */
+    @Nullable
+    CompletableFuture<ResponseT> invoke(@Nullable ResponseT previousResponse, int pageSizeHint);
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.Spliterator;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Primitive spliterator over the values of batches lazy-loaded from a primitive batch supplier, as for
+ * {@link BatchIterator} and {@link BatchElementSpliterator}.  Each batch is traversed with its array's spliterator,
+ * so values are neither boxed nor wrapped.  Splitting hands off the (sized) remainder of the current batch, otherwise
+ * the next batch, up to {@link BatchElementSpliterator#MAX_SPLIT_BATCHES} batches.
+ *
+ * @param <T>         boxed type of values
+ * @param <B>         type of batch
+ * @param <T_CONS>    type of primitive consumer
+ * @param <T_SPLITR>  type of primitive spliterator
+ */
+abstract class PrimitiveBatchSpliterator<T, B, T_CONS, T_SPLITR extends Spliterator.OfPrimitive<T, T_CONS, T_SPLITR>>
+        implements Spliterator.OfPrimitive<T, T_CONS, T_SPLITR> {
+
+    private T_SPLITR currentBatch;
+    private boolean firstBatch = true;
+    private String nextToken;
+    private int splitBatches;
+
+    abstract B nextBatch(String token);
+
+    abstract String nextToken(B batch);
+
+    abstract T_SPLITR batchSpliterator(B batch);
+
+    abstract Class<?> supplierClass();
+
+    @Override
+    public boolean tryAdvance(T_CONS action) {
+        checkNotNull(action, "action is required");
+        do {
+            if (currentBatch != null && currentBatch.tryAdvance(action)) {
+                return true;
+            }
+        } while (advanceBatch());
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(T_CONS action) {
+        checkNotNull(action, "action is required");
+        do {
+            if (currentBatch != null) {
+                currentBatch.forEachRemaining(action);
+            }
+        } while (advanceBatch());
+    }
+
+    private boolean advanceBatch() {
+        currentBatch = null;
+        if (!firstBatch && nextToken == null) {
+            return false;
+        }
+        String lastToken = nextToken;
+        B batch = BatchChains.verifyBatch(nextBatch(lastToken), supplierClass());
+        nextToken = nextToken(batch);
+        BatchChains.verifyNextToken(lastToken, nextToken);
+        firstBatch = false;
+        currentBatch = batchSpliterator(batch);
+        return true;
+    }
+
+    @Override
+    public T_SPLITR trySplit() {
+        if (splitBatches >= BatchElementSpliterator.MAX_SPLIT_BATCHES || (currentBatch == null && !advanceBatch())) {
+            return null;
+        }
+        // hand off the (remainder of the) current batch, a prefix of this spliterator's values
+        T_SPLITR split = currentBatch;
+        currentBatch = null;
+        splitBatches++;
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (firstBatch || nextToken != null) {
+            return Long.MAX_VALUE;
+        }
+        return currentBatch == null ? 0 : currentBatch.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+    }
+
+    static final class OfInt extends PrimitiveBatchSpliterator<Integer, IntBatch, IntConsumer, Spliterator.OfInt> implements Spliterator.OfInt {
+        private final IntBatchSupplier batchSupplier;
+
+        OfInt(IntBatchSupplier batchSupplier) {
+            this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+        }
+
+        @Override
+        IntBatch nextBatch(String token) {
+            return batchSupplier.nextBatch(token);
+        }
+
+        @Override
+        String nextToken(IntBatch batch) {
+            return batch.getNextToken();
+        }
+
+        @Override
+        Spliterator.OfInt batchSpliterator(IntBatch batch) {
+            return batch.spliterator();
+        }
+
+        @Override
+        Class<?> supplierClass() {
+            return batchSupplier.getClass();
+        }
+    }
+
+    static final class OfLong extends PrimitiveBatchSpliterator<Long, LongBatch, LongConsumer, Spliterator.OfLong> implements Spliterator.OfLong {
+        private final LongBatchSupplier batchSupplier;
+
+        OfLong(LongBatchSupplier batchSupplier) {
+            this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+        }
+
+        @Override
+        LongBatch nextBatch(String token) {
+            return batchSupplier.nextBatch(token);
+        }
+
+        @Override
+        String nextToken(LongBatch batch) {
+            return batch.getNextToken();
+        }
+
+        @Override
+        Spliterator.OfLong batchSpliterator(LongBatch batch) {
+            return batch.spliterator();
+        }
+
+        @Override
+        Class<?> supplierClass() {
+            return batchSupplier.getClass();
+        }
+    }
+
+    static final class OfDouble extends PrimitiveBatchSpliterator<Double, DoubleBatch, DoubleConsumer, Spliterator.OfDouble> implements Spliterator.OfDouble {
+        private final DoubleBatchSupplier batchSupplier;
+
+        OfDouble(DoubleBatchSupplier batchSupplier) {
+            this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+        }
+
+        @Override
+        DoubleBatch nextBatch(String token) {
+            return batchSupplier.nextBatch(token);
+        }
+
+        @Override
+        String nextToken(DoubleBatch batch) {
+            return batch.getNextToken();
+        }
+
+        @Override
+        Spliterator.OfDouble batchSpliterator(DoubleBatch batch) {
+            return batch.spliterator();
+        }
+
+        @Override
+        Class<?> supplierClass() {
+            return batchSupplier.getClass();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Point-in-time metrics for a pool of batch producers
+ */
+public final class ProducerPoolMetrics {
+    private final int activeProducers;
+    private final int poolSize;
+    private final int largestPoolSize;
+    private final int maximumPoolSize;
+    private final long rejectedProducers;
+    private final long completedProducers;
+
+    ProducerPoolMetrics(int activeProducers, int poolSize, int largestPoolSize, int maximumPoolSize, long rejectedProducers, long completedProducers) {
+        this.activeProducers = activeProducers;
+        this.poolSize = poolSize;
+        this.largestPoolSize = largestPoolSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.rejectedProducers = rejectedProducers;
+        this.completedProducers = completedProducers;
+    }
+
+    /**
+     * @return approximate number of producers currently running
+     */
+    public int getActiveProducers() {
+        return activeProducers;
+    }
+
+    /**
+     * @return current number of threads in the pool
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return largest number of threads that have simultaneously been in the pool
+     */
+    public int getLargestPoolSize() {
+        return largestPoolSize;
+    }
+
+    /**
+     * @return maximum number of threads permitted in the pool
+     */
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    /**
+     * @return number of producers that have been rejected as all threads in the pool were busy
+     */
+    public long getRejectedProducers() {
+        return rejectedProducers;
+    }
+
+    /**
+     * @return approximate number of producers that have completed
+     */
+    public long getCompletedProducers() {
+        return completedProducers;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("activeProducers", activeProducers)
+                .add("poolSize", poolSize)
+                .add("largestPoolSize", largestPoolSize)
+                .add("maximumPoolSize", maximumPoolSize)
+                .add("rejectedProducers", rejectedProducers)
+                .add("completedProducers", completedProducers)
+                .toString();
+    }
+}
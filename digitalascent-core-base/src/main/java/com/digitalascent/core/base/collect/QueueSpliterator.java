@@ -37,11 +37,32 @@ final class QueueSpliterator<T> implements Spliterator<T> {
     private final BlockingQueue<T> queue;
     private final T poison;
     private final Future<?> producerFuture;
+    private final TakeListener<? super T> takeListener;
+
+    /**
+     * Notified (in the consuming thread) of each element taken from the queue
+     *
+     * @param <T> type of elements in the queue
+     */
+    @FunctionalInterface
+    interface TakeListener<T> {
+        /**
+         * @param element   the element taken from the queue
+         * @param waitNanos time the consumer waited for the element; 0 if the element was immediately available
+         */
+        void onTake(T element, long waitNanos);
+    }
 
     QueueSpliterator(BlockingQueue<T> queue, T poison, Future<?> producerFuture) {
+        this(queue, poison, producerFuture, (element, waitNanos) -> {
+        });
+    }
+
+    QueueSpliterator(BlockingQueue<T> queue, T poison, Future<?> producerFuture, TakeListener<? super T> takeListener) {
         this.queue = checkNotNull(queue, "queue is required");
         this.poison = checkNotNull(poison, "poison is required");
         this.producerFuture = checkNotNull(producerFuture, "producerFuture is required");
+        this.takeListener = checkNotNull(takeListener, "takeListener is required");
     }
 
     @Override
@@ -56,7 +77,13 @@ final class QueueSpliterator<T> implements Spliterator<T> {
 
     @Override
     public boolean tryAdvance(final Consumer<? super T> action) {
-        final T next = Uninterruptibles.takeUninterruptibly(queue);
+        long waitNanos = 0;
+        T next = queue.poll();
+        if (next == null) {
+            long waitStart = System.nanoTime();
+            next = Uninterruptibles.takeUninterruptibly(queue);
+            waitNanos = System.nanoTime() - waitStart;
+        }
         if (next == poison) {
             try {
                 // obtain result from producer, used to propagate any producer exceptions
@@ -68,6 +95,7 @@ final class QueueSpliterator<T> implements Spliterator<T> {
             }
             return false;
         }
+        takeListener.onTake(next, waitNanos);
         action.accept(next);
         return true;
     }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.digitalascent.core.base.concurrent.Threads;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builds a stream that <i>asynchronously</i> lazy-loads batches of elements from a supplier, as described for
+ * {@link MoreStreams#queuedBatchLoadingStream(BatchSupplier, int)}, with optional settings:
+ * <ul>
+ * <li>the executor to run the producer on (default: a new thread per stream)</li>
+ * <li>a budget on the total weight of queued batches, e.g. estimated bytes, in addition to the number of queued batches</li>
+ * <li>a listener for metrics on fetches, queueing and stalls</li>
+ * </ul>
+ * <pre>
+ * Stream&lt;ObjectVersion&gt; versions = MoreStreams.queuedBatchLoadingStreamBuilder(batchSupplier)
+ *      .withQueueSize(50)
+ *      .withWeightBudget(versions -&gt; estimateBytes(versions), 64 * 1024 * 1024)
+ *      .withExecutor(BatchProducerExecutors.shared())
+ *      .build();
+ * </pre>
+ *
+ * @param <T> type of element
+ */
+@SuppressWarnings({"UnusedReturnValue", "unused"})
+public final class QueuedBatchStreamBuilder<T> {
+    static final int DEFAULT_QUEUE_SIZE = 5;
+
+    private final BatchSupplier<T> batchSupplier;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private Executor executor;
+    private ToLongFunction<? super Iterable<T>> weigher;
+    private long maxQueuedWeight;
+    private BatchStreamListener listener;
+
+    QueuedBatchStreamBuilder(BatchSupplier<T> batchSupplier) {
+        this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+    }
+
+    /**
+     * @param queueSize number of batches to allow to be queued before blocking the supplier from adding more batches (default 5)
+     * @return this builder
+     */
+    public QueuedBatchStreamBuilder<T> withQueueSize(int queueSize) {
+        checkArgument(queueSize > 0, "queueSize must be > 0 : %s", queueSize);
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * @param executor executor to run the batch producer (e.g. {@link BatchProducerExecutors#shared()}); the producer
+     *                 occupies an executor thread until all batches are loaded or the stream is closed
+     * @return this builder
+     */
+    public QueuedBatchStreamBuilder<T> withExecutor(Executor executor) {
+        this.executor = checkNotNull(executor, "executor is required");
+        return this;
+    }
+
+    /**
+     * Limit the total weight of queued batches; the producer blocks once adding a batch would exceed the budget,
+     * regardless of the number of queued batches.  A batch heavier than the whole budget is queued once the queue is empty.
+     *
+     * @param weigher         computes the weight (e.g. estimated bytes) of a batch's elements; must be >= 0
+     * @param maxQueuedWeight maximum total weight of queued batches
+     * @return this builder
+     */
+    public QueuedBatchStreamBuilder<T> withWeightBudget(ToLongFunction<? super Iterable<T>> weigher, long maxQueuedWeight) {
+        this.weigher = checkNotNull(weigher, "weigher is required");
+        checkArgument(maxQueuedWeight > 0, "maxQueuedWeight must be > 0 : %s", maxQueuedWeight);
+        this.maxQueuedWeight = maxQueuedWeight;
+        return this;
+    }
+
+    /**
+     * @param listener notified of batch fetches, queueing and producer/consumer stalls, e.g. {@link BatchStreamMetrics}
+     * @return this builder
+     */
+    public QueuedBatchStreamBuilder<T> withListener(BatchStreamListener listener) {
+        this.listener = checkNotNull(listener, "listener is required");
+        return this;
+    }
+
+    /**
+     * @return Stream of elements that are <i>asynchronously</i> lazy-loaded in batches from the supplier
+     */
+    public Stream<T> build() {
+        if (executor == null) {
+            // only use a single thread as batches are chained (the result of one batch has the token to load the next batch)
+            ExecutorService executorService = Executors.newFixedThreadPool(1, Threads.defaultThreadFactory("MoreStreams.batchLoadingStream:" + batchSupplier.getClass()));
+            try {
+                return build(executorService);
+            } finally {
+                // producer has been submitted; thread exits once the producer completes
+                executorService.shutdown();
+            }
+        }
+        return build(executor);
+    }
+
+    private Stream<T> build(Executor producerExecutor) {
+        BatchQueue<T> batchQueue = new BatchQueue<>(queueSize, true, null, weigher, maxQueuedWeight, listener);
+
+        // load batches asynchronously, governed by the queue size (blocking when queue is full)
+        ListenableFutureTask<Void> batchProducerFuture = ListenableFutureTask.create(() -> {
+            try {
+                batchQueue.load(batchSupplier);
+            } finally {
+                // always poison the queue, notifying consumer that this producer is finished, even in the event of an exception here (which will propagate to consumer)
+                batchQueue.finish();
+            }
+            return null;
+        });
+        producerExecutor.execute(batchProducerFuture);
+
+        // pull each batch off the queue and return a stream for it
+        return batchQueue.stream(batchProducerFuture);
+    }
+}
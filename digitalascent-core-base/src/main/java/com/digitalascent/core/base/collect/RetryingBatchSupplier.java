@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.digitalascent.core.base.SimpleApplicationObject;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Batch supplier that retries retryable failures, with "full jitter" exponential backoff (a random backoff between zero
+ * and an exponentially increasing ceiling, spreading out retries from concurrent callers).  Each retry requests the
+ * same token, so that no batch is skipped or repeated.
+ *
+ * @param <T> type of elements in the batches
+ */
+final class RetryingBatchSupplier<T> extends SimpleApplicationObject implements BatchSupplier<T> {
+    private final BatchSupplier<T> batchSupplier;
+    private final BatchRetrySettings retrySettings;
+
+    RetryingBatchSupplier(BatchSupplier<T> batchSupplier, BatchRetrySettings retrySettings) {
+        this.batchSupplier = checkNotNull(batchSupplier, "batchSupplier is required");
+        this.retrySettings = checkNotNull(retrySettings, "retrySettings is required");
+    }
+
+    @Override
+    public Batch<T> nextBatch(@Nullable String nextBatchToken) {
+        int attempt = 1;
+        while (true) {
+            try {
+                return batchSupplier.nextBatch(nextBatchToken);
+            } catch (RuntimeException e) {
+                if (attempt >= retrySettings.getMaxAttempts() || !retrySettings.isRetryable(e)) {
+                    throw e;
+                }
+                long backoffNanos = ThreadLocalRandom.current().nextLong(retrySettings.backoffCeilingNanos(attempt) + 1);
+                getLogger().debug("Retrying batch '{}' from {} in {} ms (attempt {} of {} failed): {}", nextBatchToken,
+                        batchSupplier.getClass(), TimeUnit.NANOSECONDS.toMillis(backoffNanos), attempt, retrySettings.getMaxAttempts(), e.toString());
+                try {
+                    TimeUnit.NANOSECONDS.sleep(backoffNanos);
+                } catch (InterruptedException interrupted) {
+                    // stop retrying, e.g. the stream has been closed
+                    Thread.currentThread().interrupt();
+                    e.addSuppressed(interrupted);
+                    throw e;
+                }
+                attempt++;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A difference between the current entries of a listing and a snapshot of its previous entries.
+ *
+ * @param <T> type of entry
+ * @see MoreStreams#snapshotDiff(java.util.stream.Stream, java.util.Comparator, java.util.function.BiPredicate, ElementSerializer, java.nio.file.Path)
+ */
+public final class SnapshotChange<T> {
+    /**
+     * Type of change
+     */
+    public enum Type {
+        /**
+         * entry is in the listing, but not the snapshot
+         */
+        ADDED,
+        /**
+         * entry is in the snapshot, but not the listing
+         */
+        REMOVED,
+        /**
+         * entry is in both, but has changed
+         */
+        MODIFIED
+    }
+
+    private final Type type;
+    private final T previous;
+    private final T current;
+
+    SnapshotChange(Type type, @Nullable T previous, @Nullable T current) {
+        this.type = checkNotNull(type, "type is required");
+        checkArgument(type == Type.ADDED || previous != null, "previous is required for %s", type);
+        checkArgument(type == Type.REMOVED || current != null, "current is required for %s", type);
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the entry in the snapshot; null if ADDED
+     */
+    @Nullable
+    public T getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return the entry in the listing; null if REMOVED
+     */
+    @Nullable
+    public T getCurrent() {
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("type", type)
+                .add("previous", previous)
+                .add("current", current)
+                .toString();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiPredicate;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Iterator over the changes between a sorted listing and the snapshot of the previous listing, merging the two in key
+ * order; only changed entries are returned.  As the listing is read it is written to a new snapshot, which replaces the
+ * previous snapshot once the listing has been fully read.
+ * <p>
+ * Snapshot files consist of a header followed by the entries, in key order, each preceded by a marker byte; the
+ * previous snapshot is read through a memory mapping.
+ * </p>
+ *
+ * @param <T> type of entry
+ */
+final class SnapshotDiffIterator<T> implements Iterator<SnapshotChange<T>>, AutoCloseable {
+    private static final int SNAPSHOT_MAGIC = 0x534E4150;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final byte ENTRY_MARKER = 1;
+    private static final byte END_MARKER = 0;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final Iterator<T> listing;
+    private final Comparator<? super T> keyOrder;
+    private final BiPredicate<? super T, ? super T> unchanged;
+    private final ElementSerializer<T> serializer;
+    private final Path snapshotFile;
+
+    private MappedFileDataInput previousSnapshot;
+    private DataOutputStream nextSnapshot;
+    private Path nextSnapshotFile;
+
+    private T previousEntry;
+    private T currentEntry;
+    private T lastCurrentEntry;
+    private SnapshotChange<T> nextChange;
+    private boolean started;
+    private boolean finished;
+
+    SnapshotDiffIterator(Iterator<T> listing, Comparator<? super T> keyOrder, BiPredicate<? super T, ? super T> unchanged,
+                         ElementSerializer<T> serializer, Path snapshotFile) {
+        this.listing = checkNotNull(listing, "listing is required");
+        this.keyOrder = checkNotNull(keyOrder, "keyOrder is required");
+        this.unchanged = checkNotNull(unchanged, "unchanged is required");
+        this.serializer = checkNotNull(serializer, "serializer is required");
+        this.snapshotFile = checkNotNull(snapshotFile, "snapshotFile is required");
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextChange == null && !finished) {
+            try {
+                if (!started) {
+                    start();
+                }
+                nextChange = computeNextChange();
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("Unable to diff snapshot " + snapshotFile, e);
+            } catch (RuntimeException | Error e) {
+                close();
+                throw e;
+            }
+        }
+        return nextChange != null;
+    }
+
+    @Override
+    public SnapshotChange<T> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SnapshotChange<T> change = nextChange;
+        nextChange = null;
+        return change;
+    }
+
+    private void start() throws IOException {
+        started = true;
+        if (Files.exists(snapshotFile)) {
+            previousSnapshot = new MappedFileDataInput(snapshotFile);
+            if (previousSnapshot.readInt() != SNAPSHOT_MAGIC || previousSnapshot.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a snapshot file: " + snapshotFile);
+            }
+        }
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        nextSnapshotFile = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        nextSnapshot = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+                FileChannel.open(nextSnapshotFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)), IO_BUFFER_SIZE));
+        nextSnapshot.writeInt(SNAPSHOT_MAGIC);
+        nextSnapshot.writeInt(SNAPSHOT_VERSION);
+
+        previousEntry = readPreviousEntry();
+        currentEntry = readCurrentEntry();
+    }
+
+    private SnapshotChange<T> computeNextChange() throws IOException {
+        while (previousEntry != null || currentEntry != null) {
+            int comparison = previousEntry == null ? 1 : currentEntry == null ? -1 : keyOrder.compare(previousEntry, currentEntry);
+            SnapshotChange<T> change = null;
+            if (comparison < 0) {
+                change = new SnapshotChange<>(SnapshotChange.Type.REMOVED, previousEntry, null);
+                previousEntry = readPreviousEntry();
+            } else if (comparison > 0) {
+                change = new SnapshotChange<>(SnapshotChange.Type.ADDED, null, currentEntry);
+                currentEntry = readCurrentEntry();
+            } else {
+                if (!unchanged.test(previousEntry, currentEntry)) {
+                    change = new SnapshotChange<>(SnapshotChange.Type.MODIFIED, previousEntry, currentEntry);
+                }
+                previousEntry = readPreviousEntry();
+                currentEntry = readCurrentEntry();
+            }
+            if (change != null) {
+                return change;
+            }
+        }
+        finish();
+        return null;
+    }
+
+    private T readPreviousEntry() throws IOException {
+        if (previousSnapshot == null || previousSnapshot.readByte() == END_MARKER) {
+            return null;
+        }
+        return serializer.read(previousSnapshot);
+    }
+
+    private T readCurrentEntry() throws IOException {
+        if (!listing.hasNext()) {
+            return null;
+        }
+        T entry = listing.next();
+        checkNotNull(entry, "null entry in listing");
+        if (lastCurrentEntry != null && keyOrder.compare(lastCurrentEntry, entry) >= 0) {
+            throw new IllegalStateException(String.format("Listing is not sorted by key: '%s' follows '%s'", entry, lastCurrentEntry));
+        }
+        lastCurrentEntry = entry;
+        nextSnapshot.writeByte(ENTRY_MARKER);
+        serializer.write(entry, nextSnapshot);
+        return entry;
+    }
+
+    /**
+     * Replace the previous snapshot with the new snapshot
+     */
+    private void finish() throws IOException {
+        finished = true;
+        nextSnapshot.writeByte(END_MARKER);
+        nextSnapshot.close();
+        nextSnapshot = null;
+        closePreviousSnapshot();
+        Files.move(nextSnapshotFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        nextSnapshotFile = null;
+    }
+
+    /**
+     * Release the snapshot files; unless the listing has been fully read, the new snapshot is discarded and the
+     * previous snapshot retained
+     */
+    @Override
+    public void close() {
+        finished = true;
+        closePreviousSnapshot();
+        if (nextSnapshot != null) {
+            try {
+                nextSnapshot.close();
+            } catch (IOException e) {
+                // discarded
+            }
+            nextSnapshot = null;
+        }
+        if (nextSnapshotFile != null) {
+            try {
+                Files.deleteIfExists(nextSnapshotFile);
+            } catch (IOException e) {
+                // best effort; temporary file
+            }
+            nextSnapshotFile = null;
+        }
+    }
+
+    private void closePreviousSnapshot() {
+        if (previousSnapshot != null) {
+            try {
+                previousSnapshot.close();
+            } catch (IOException e) {
+                // read-only; nothing to lose
+            }
+            previousSnapshot = null;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded, lock-free ring buffer for exactly one producer thread and one consumer thread at a time (threads may change,
+ * provided hand-offs between them are ordered, e.g. by chained futures).  Offering and polling are wait-free; blocking
+ * operations spin briefly (on multiprocessors) before parking, and are unparked by the other side.
+ * <p>
+ * Producer and consumer indexes are padded onto separate cache lines, and each side caches the other's index, only
+ * re-reading it when the buffer appears full (producer) or empty (consumer).
+ * </p>
+ * <p>
+ * Producer-side operations: {@code offer}, {@code put}; consumer-side operations: {@code poll}, {@code take},
+ * {@code peek}, {@code drainTo}, {@code clear}, {@code remove(Object)}, {@code removeIf}, {@code removeAll},
+ * {@code retainAll}, and iteration (including {@code contains} and {@code toArray}, which iterate).  Removal compacts
+ * the remaining elements towards the producer and advances the consumer index past the freed slots, so the producer
+ * never observes a slot being rewritten.  {@code size} and {@code isEmpty} may be used from any thread and are weakly
+ * consistent.
+ * </p>
+ *
+ * @param <E> type of element
+ */
+final class SpscBlockingQueue<E> extends SpscBlockingQueueFields.Pad2<E> implements BlockingQueue<E> {
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    // as for SynchronousQueue; spinning is a waste of time on uniprocessors
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+
+    private final Object[] buffer;
+    private final int mask;
+    private final int capacity;
+
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+
+    SpscBlockingQueue(int capacity) {
+        checkArgument(capacity > 0 && capacity <= MAX_CAPACITY, "capacity must be > 0 and <= %s : %s", MAX_CAPACITY, capacity);
+        int bufferSize = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new Object[bufferSize];
+        this.mask = bufferSize - 1;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        checkNotNull(e, "e is required");
+        long currentTail = tail;
+        if (currentTail - cachedHead >= capacity) {
+            cachedHead = head;
+            if (currentTail - cachedHead >= capacity) {
+                return false;
+            }
+        }
+        buffer[index(currentTail)] = e;
+        // volatile write publishes the element; also orders the read of waitingConsumer after it
+        tail = currentTail + 1;
+        unpark(waitingConsumer);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        long currentHead = head;
+        if (currentHead >= cachedTail) {
+            cachedTail = tail;
+            if (currentHead >= cachedTail) {
+                return null;
+            }
+        }
+        int index = index(currentHead);
+        @SuppressWarnings("unchecked")
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        // volatile write releases the slot to the producer; also orders the read of waitingProducer after it
+        head = currentHead + 1;
+        unpark(waitingProducer);
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long currentHead = head;
+        if (currentHead >= cachedTail) {
+            cachedTail = tail;
+            if (currentHead >= cachedTail) {
+                return null;
+            }
+        }
+        return (E) buffer[index(currentHead)];
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(e, "e is required");
+        checkNotNull(unit, "unit is required");
+        for (int i = 0; i <= SPINS; i++) {
+            if (offer(e)) {
+                return true;
+            }
+        }
+        long deadline = deadline(timeout, unit);
+        waitingProducer = Thread.currentThread();
+        try {
+            // re-check after publishing the waiting thread, so that a concurrent poll either sees it or frees a slot we see
+            while (!offer(e)) {
+                if (!park(deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            waitingProducer = null;
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(unit, "unit is required");
+        E e;
+        for (int i = 0; i <= SPINS; i++) {
+            if ((e = poll()) != null) {
+                return e;
+            }
+        }
+        long deadline = deadline(timeout, unit);
+        waitingConsumer = Thread.currentThread();
+        try {
+            while ((e = poll()) == null) {
+                if (!park(deadline)) {
+                    return null;
+                }
+            }
+            return e;
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    private static long deadline(long timeout, TimeUnit unit) {
+        long timeoutNanos = unit.toNanos(timeout);
+        return timeoutNanos >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE : System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * @return false if the deadline has passed
+     */
+    private boolean park(long deadline) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (deadline == Long.MAX_VALUE) {
+            LockSupport.park(this);
+            return true;
+        }
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0) {
+            return false;
+        }
+        LockSupport.parkNanos(this, remainingNanos);
+        return true;
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+
+    @Override
+    public int size() {
+        // read head first; tail only increases, so the difference can't be negative
+        long currentHead = head;
+        long currentTail = tail;
+        return (int) Math.min(capacity, currentTail - currentHead);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * Consumer-side; removes the first occurrence of {@code o}, shifting the elements ahead of it towards the producer.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        long currentHead = head;
+        long currentTail = tail;
+        for (long sequence = currentHead; sequence < currentTail; sequence++) {
+            if (o.equals(buffer[index(sequence)])) {
+                for (long target = sequence; target > currentHead; target--) {
+                    buffer[index(target)] = buffer[index(target - 1)];
+                }
+                buffer[index(currentHead)] = null;
+                head = currentHead + 1;
+                unpark(waitingProducer);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consumer-side; the predicate is evaluated for every element before any are removed, so a throwing predicate
+     * leaves the queue unchanged.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean removeIf(Predicate<? super E> filter) {
+        checkNotNull(filter, "filter is required");
+        long currentHead = head;
+        long currentTail = tail;
+        int count = (int) (currentTail - currentHead);
+        BitSet removed = new BitSet(count);
+        for (int i = 0; i < count; i++) {
+            if (filter.test((E) buffer[index(currentHead + i)])) {
+                removed.set(i);
+            }
+        }
+        if (removed.isEmpty()) {
+            return false;
+        }
+
+        // compact retained elements towards the tail, then release the vacated slots at the head
+        long newHead = currentTail;
+        for (int i = count - 1; i >= 0; i--) {
+            if (!removed.get(i)) {
+                newHead--;
+                buffer[index(newHead)] = buffer[index(currentHead + i)];
+            }
+        }
+        for (long sequence = currentHead; sequence < newHead; sequence++) {
+            buffer[index(sequence)] = null;
+        }
+        head = newHead;
+        unpark(waitingProducer);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        checkNotNull(c, "c is required");
+        return removeIf(c::contains);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        checkNotNull(c, "c is required");
+        return removeIf(e -> !c.contains(e));
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        checkNotNull(c, "c is required");
+        checkArgument(c != this, "cannot drain to self");
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Consumer-side; elements below the consumer's own index can't be recycled by the producer while it iterates, and
+     * the volatile read of the producer index makes the slots below it visible.
+     *
+     * @return iterator over a snapshot of the queued elements; does not support removal (use {@link #removeIf})
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        long currentHead = head;
+        long currentTail = tail;
+        List<E> snapshot = new ArrayList<>((int) (currentTail - currentHead));
+        for (long sequence = currentHead; sequence < currentTail; sequence++) {
+            snapshot.add((E) buffer[index(sequence)]);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import java.util.AbstractQueue;
+
+/**
+ * Index fields of {@link SpscBlockingQueue}, padded by class hierarchy (field layout keeps superclass fields ahead of
+ * subclass fields) so that the producer and consumer indexes are on separate cache lines.
+ */
+final class SpscBlockingQueueFields {
+
+    private SpscBlockingQueueFields() {
+        throw new AssertionError("Cannot instantiate " + getClass());
+    }
+
+    /**
+     * Padding ahead of the producer index, isolating it from preceding object data
+     */
+    @SuppressWarnings("unused")
+    abstract static class Pad0<E> extends AbstractQueue<E> {
+        long p00;
+        long p01;
+        long p02;
+        long p03;
+        long p04;
+        long p05;
+        long p06;
+        long p07;
+    }
+
+    /**
+     * Fields written by the producer
+     */
+    abstract static class ProducerFields<E> extends Pad0<E> {
+        // next sequence to write
+        volatile long tail;
+        // producer's view of the consumer's head; avoids reading head (and sharing its cache line) unless the queue appears full
+        long cachedHead;
+    }
+
+    @SuppressWarnings("unused")
+    abstract static class Pad1<E> extends ProducerFields<E> {
+        long p10;
+        long p11;
+        long p12;
+        long p13;
+        long p14;
+        long p15;
+        long p16;
+        long p17;
+    }
+
+    /**
+     * Fields written by the consumer
+     */
+    abstract static class ConsumerFields<E> extends Pad1<E> {
+        // next sequence to read
+        volatile long head;
+        // consumer's view of the producer's tail; avoids reading tail unless the queue appears empty
+        long cachedTail;
+    }
+
+    @SuppressWarnings("unused")
+    abstract static class Pad2<E> extends ConsumerFields<E> {
+        long p20;
+        long p21;
+        long p22;
+        long p23;
+        long p24;
+        long p25;
+        long p26;
+        long p27;
+    }
+}
@@ -19,45 +19,315 @@ package com.digitalascent.core.base.concurrent;
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Spliterators;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Wraps an executor, storing futures for executed tasks & waiting until all tasks have completed.
+ * Wraps an executor, tracking executed tasks & waiting until all tasks have completed.
+ * <p>
+ * Optionally, the number of tasks running at once is limited; further tasks are queued (without blocking the caller)
+ * and started as running tasks complete.  The group fails fast: the first task to fail cancels all queued and running
+ * tasks, and is thrown by {@link #whenAllSucceed(Callable)}.  An optional deadline, from creation of the group, fails
+ * the group if it has not completed in time.
+ * </p>
+ * <p>
+ * Tasks may be executed concurrently from any thread, including from running tasks (e.g. recursively fanning out over a
+ * tree); registration is lock-free, and only outstanding tasks are tracked.  {@link #whenAllSucceed(Callable)} waits
+ * for the count of outstanding tasks to reach zero, so tasks that execute child tasks must do so before completing.
+ * Tasks that are cancelled via their future are ignored.
+ * </p>
  */
 public final class AsyncExecutionGroup {
     private final ListeningExecutorService executorService;
-    private final List<ListenableFuture<?>> futures = new ArrayList<>();
+    private final int maxInFlight;
+    private final long deadlineNanos;
+    private final boolean hasDeadline;
+
+    private final Queue<ListenableFutureTask<?>> queuedTasks = new ConcurrentLinkedQueue<>();
+    private final Set<ListenableFutureTask<?>> runningTasks = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger runningTaskCount = new AtomicInteger();
+    private final AtomicLong outstandingTaskCount = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // notified once there are no outstanding tasks, or on failure
+    private final Object completionMonitor = new Object();
 
     public AsyncExecutionGroup(ListeningExecutorService executorService) {
+        this(executorService, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param executorService executor to run tasks
+     * @param maxInFlight     maximum number of tasks running at once, e.g. to stay within an API's throttling limits
+     */
+    public AsyncExecutionGroup(ListeningExecutorService executorService, int maxInFlight) {
+        this(executorService, maxInFlight, 0, null);
+    }
+
+    /**
+     * @param executorService executor to run tasks
+     * @param maxInFlight     maximum number of tasks running at once, e.g. to stay within an API's throttling limits
+     * @param deadline        time from now by which all tasks must have completed, after which remaining tasks are cancelled
+     * @param unit            time unit of the deadline
+     */
+    public AsyncExecutionGroup(ListeningExecutorService executorService, int maxInFlight, long deadline, TimeUnit unit) {
         this.executorService = checkNotNull(executorService);
+        checkArgument(maxInFlight > 0, "maxInFlight must be > 0 : %s", maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.hasDeadline = unit != null;
+        if (hasDeadline) {
+            checkArgument(deadline > 0, "deadline must be > 0 : %s", deadline);
+            this.deadlineNanos = System.nanoTime() + unit.toNanos(deadline);
+        } else {
+            this.deadlineNanos = 0;
+        }
     }
 
     public <T> ListenableFuture<T> execute(Callable<T> callable) {
-        ListenableFuture<T> future = executorService.submit(callable);
-        futures.add(future);
-        return future;
+        return enqueue(ListenableFutureTask.create(checkNotNull(callable)));
     }
 
     public void execute(Runnable runnable) {
-        ListenableFuture<?> future = executorService.submit(runnable);
-        futures.add(future);
+        enqueue(ListenableFutureTask.create(checkNotNull(runnable), null));
+    }
+
+    private <T> ListenableFutureTask<T> enqueue(ListenableFutureTask<T> task) {
+        outstandingTaskCount.incrementAndGet();
+        task.addListener(() -> onTaskDone(task), MoreExecutors.directExecutor());
+        if (failure.get() != null) {
+            task.cancel(false);
+            return task;
+        }
+        queuedTasks.add(task);
+        if (failure.get() != null) {
+            // failed concurrently; may have missed this task
+            cancelQueuedTasks();
+            return task;
+        }
+        startQueuedTasks();
+        return task;
+    }
+
+    /**
+     * Start queued tasks while fewer than maxInFlight are running.  Tasks are queued before calling this, and running tasks
+     * call this after decrementing the running count, so a queued task is always started by one or the other.
+     */
+    private void startQueuedTasks() {
+        while (!queuedTasks.isEmpty()) {
+            int running = runningTaskCount.get();
+            if (running >= maxInFlight) {
+                return;
+            }
+            if (!runningTaskCount.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            ListenableFutureTask<?> task = queuedTasks.poll();
+            if (task == null || task.isDone()) {
+                // taken by another thread, or cancelled while queued
+                runningTaskCount.decrementAndGet();
+                continue;
+            }
+            if (deadlineExceeded()) {
+                runningTaskCount.decrementAndGet();
+                task.cancel(false);
+                failIfDeadlineExceeded();
+                return;
+            }
+            start(task);
+        }
+    }
+
+    private void start(ListenableFutureTask<?> task) {
+        runningTasks.add(task);
+        if (failure.get() != null) {
+            // failed concurrently; may have missed this task
+            task.cancel(true);
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    taskFinished(task);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+            taskFinished(task);
+            fail(e);
+        }
+    }
+
+    private void taskFinished(ListenableFutureTask<?> task) {
+        runningTasks.remove(task);
+        runningTaskCount.decrementAndGet();
+        startQueuedTasks();
+    }
+
+    private void onTaskDone(ListenableFuture<?> task) {
+        if (!task.isCancelled()) {
+            try {
+                Futures.getDone(task);
+            } catch (ExecutionException e) {
+                fail(e.getCause());
+            }
+        }
+        if (outstandingTaskCount.decrementAndGet() == 0) {
+            synchronized (completionMonitor) {
+                completionMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Record the first failure, cancelling queued and running tasks
+     */
+    private void fail(Throwable t) {
+        if (!failure.compareAndSet(null, t)) {
+            return;
+        }
+        cancelQueuedTasks();
+        runningTasks.forEach(task -> task.cancel(true));
+        synchronized (completionMonitor) {
+            completionMonitor.notifyAll();
+        }
+    }
+
+    private void cancelQueuedTasks() {
+        ListenableFutureTask<?> task;
+        while ((task = queuedTasks.poll()) != null) {
+            task.cancel(false);
+        }
+    }
+
+    private boolean deadlineExceeded() {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * @return time remaining until the deadline; Long.MAX_VALUE without a deadline
+     */
+    long nanosUntilDeadline() {
+        return hasDeadline ? Math.max(0, deadlineNanos - System.nanoTime()) : Long.MAX_VALUE;
+    }
+
+    void failIfDeadlineExceeded() {
+        if (deadlineExceeded()) {
+            fail(new UncheckedTimeoutException("AsyncExecutionGroup deadline exceeded"));
+        }
+    }
+
+    /**
+     * Execute tasks from a stream, streaming their results in the order the tasks complete, as a completion service would.
+     * Tasks are pulled from the stream and executed while fewer than <b>maxOutstanding</b> results are outstanding (tasks
+     * running or queued, or results not yet consumed), so that a slow consumer applies backpressure; the group's maximum
+     * number of running tasks also applies.
+     * <p>
+     * A failed task fails the returned stream with its exception (checked exceptions are wrapped), as does failure of the
+     * group, e.g. exceeding the deadline.  Closing the returned stream cancels outstanding tasks and closes the task stream.
+     * </p>
+     *
+     * @param tasks          tasks to execute
+     * @param maxOutstanding maximum number of results outstanding
+     * @param <T>            type of results
+     * @return Stream of results, in completion order
+     */
+    public <T> Stream<T> executeInCompletionOrder(Stream<? extends Callable<T>> tasks, int maxOutstanding) {
+        checkNotNull(tasks, "tasks is required");
+
+        CompletionOrderIterator<T> iterator = new CompletionOrderIterator<>(this, tasks.iterator(), maxOutstanding);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, 0), false)
+                .onClose(iterator::close)
+                .onClose(tasks::close);
+    }
+
+    /**
+     * Execute tasks from a stream, as for {@link #executeInCompletionOrder(Stream, int)}, passing each result to
+     * <b>resultConsumer</b> (on the calling thread) in the order the tasks complete; returns once all results have been
+     * consumed.  If a task or the consumer fails, outstanding tasks are cancelled and the failure is thrown.
+     *
+     * @param tasks          tasks to execute
+     * @param maxOutstanding maximum number of results outstanding
+     * @param resultConsumer consumer of results
+     * @param <T>            type of results
+     */
+    public <T> void executeInCompletionOrder(Stream<? extends Callable<T>> tasks, int maxOutstanding, Consumer<? super T> resultConsumer) {
+        checkNotNull(resultConsumer, "resultConsumer is required");
+        try (Stream<T> results = executeInCompletionOrder(tasks, maxOutstanding)) {
+            results.forEach(resultConsumer);
+        }
     }
 
     public <T> T whenAllSucceed(Callable<T> c) {
+        awaitCompletion();
+        throwIfFailed();
+
         try {
-            return Uninterruptibles.getUninterruptibly(Futures.whenAllSucceed(futures).call(c, MoreExecutors.directExecutor()));
-        } catch (ExecutionException e) {
-            Throwables.throwIfUnchecked(e.getCause());
-            throw new RuntimeException(e.getCause());
+            return c.call();
+        } catch (Exception e) {
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wait (uninterruptibly) until there are no outstanding tasks, the group has failed, or the deadline is exceeded
+     */
+    private void awaitCompletion() {
+        boolean interrupted = false;
+        try {
+            synchronized (completionMonitor) {
+                while (outstandingTaskCount.get() > 0 && failure.get() == null) {
+                    long remainingNanos = deadlineNanos - System.nanoTime();
+                    if (hasDeadline && remainingNanos <= 0) {
+                        break;
+                    }
+                    try {
+                        if (hasDeadline) {
+                            TimeUnit.NANOSECONDS.timedWait(completionMonitor, remainingNanos);
+                        } else {
+                            completionMonitor.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (outstandingTaskCount.get() > 0) {
+            failIfDeadlineExceeded();
+        }
+    }
+
+    void throwIfFailed() {
+        Throwable t = failure.get();
+        if (t != null) {
+            Throwables.throwIfUnchecked(t);
+            throw new RuntimeException(t);
         }
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.concurrent;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Iterator over the results of tasks executed in an {@link AsyncExecutionGroup}, in the order the tasks complete.  Tasks
+ * are pulled from the source and executed while fewer than <b>maxOutstanding</b> results are outstanding (running, or
+ * completed but not yet consumed), so that a slow consumer applies backpressure to task execution.
+ *
+ * @param <T> type of results
+ */
+final class CompletionOrderIterator<T> implements Iterator<T>, AutoCloseable {
+    private final AsyncExecutionGroup group;
+    private final Iterator<? extends Callable<T>> tasks;
+    private final int maxOutstanding;
+
+    private final BlockingQueue<ListenableFuture<T>> completed = new LinkedBlockingQueue<>();
+    // futures of tasks executed and not yet consumed; only accessed by the consuming thread
+    private final Set<ListenableFuture<T>> outstanding = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean closed;
+
+    CompletionOrderIterator(AsyncExecutionGroup group, Iterator<? extends Callable<T>> tasks, int maxOutstanding) {
+        this.group = checkNotNull(group, "group is required");
+        this.tasks = checkNotNull(tasks, "tasks is required");
+        checkArgument(maxOutstanding > 0, "maxOutstanding must be > 0 : %s", maxOutstanding);
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        while (outstanding.size() < maxOutstanding && tasks.hasNext()) {
+            Callable<T> task = checkNotNull(tasks.next(), "null task");
+            ListenableFuture<T> future = group.execute(task);
+            outstanding.add(future);
+            future.addListener(() -> completed.add(future), MoreExecutors.directExecutor());
+        }
+        return !outstanding.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ListenableFuture<T> future = takeCompleted();
+        outstanding.remove(future);
+        try {
+            return Futures.getDone(future);
+        } catch (ExecutionException e) {
+            close();
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (CancellationException e) {
+            // cancelled as the group has failed, e.g. a sibling failed or the deadline was exceeded
+            close();
+            group.throwIfFailed();
+            throw e;
+        }
+    }
+
+    private ListenableFuture<T> takeCompleted() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    ListenableFuture<T> future = completed.poll(group.nanosUntilDeadline(), TimeUnit.NANOSECONDS);
+                    if (future != null) {
+                        return future;
+                    }
+                    // fails the group, cancelling outstanding tasks, which are then taken as completed
+                    group.failIfDeadlineExceeded();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Cancel outstanding tasks and stop executing tasks
+     */
+    @Override
+    public void close() {
+        closed = true;
+        outstanding.forEach(future -> future.cancel(true));
+        outstanding.clear();
+    }
+}
@@ -57,6 +57,17 @@ public final class Threads {
         return defaultThreadFactoryBuilder(threadPoolPrefix).build();
     }
 
+    /**
+     * As for {@link #defaultThreadFactory(String)}, creating daemon threads; for pools that must not prevent the JVM
+     * from exiting.
+     *
+     * @param threadPoolPrefix prefix for naming threads
+     * @return ThreadFactory
+     */
+    public static ThreadFactory defaultDaemonThreadFactory(String threadPoolPrefix) {
+        return defaultThreadFactoryBuilder(threadPoolPrefix).setDaemon(true).build();
+    }
+
     /**
      * Throws InterruptedException if the current thread has been interrupted; useful to place in looping constructs
      * to abort processing if thread has been externally interrupted.
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.stream.Collectors
+
+class BatchCacheTest extends Specification {
+
+    int loads = 0
+
+    BatchSupplier<Integer> batchSupplier = { nextToken ->
+        loads++
+        int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+        return new Batch<>(idx == 4 ? null : (idx + 1).toString(), [idx * 10, idx * 10 + 1])
+    }
+
+    def "repeated scans are served from cache"() {
+        given:
+        def cache = BatchCache.create(1, TimeUnit.MINUTES, 100)
+
+        when:
+        def first = MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source", cache)).collect(Collectors.toList())
+        def second = MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source", cache)).collect(Collectors.toList())
+
+        then:
+        first == [0, 1, 10, 11, 20, 21, 30, 31, 40, 41]
+        second == first
+        loads == 5
+        cache.stats().hitCount == 5
+        cache.stats().missCount == 5
+    }
+
+    def "sources are cached independently"() {
+        given:
+        def cache = BatchCache.create(1, TimeUnit.MINUTES, 100)
+
+        when:
+        MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source1", cache)).count()
+        MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source2", cache)).count()
+
+        then:
+        loads == 10
+
+        when:
+        cache.invalidate("source1")
+        MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source1", cache)).count()
+        MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source2", cache)).count()
+
+        then:
+        loads == 15
+    }
+
+    def "batches are evicted when maximum weight exceeded"() {
+        given:
+        def cache = BatchCache.create(1, TimeUnit.MINUTES, 4)
+
+        when:
+        MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source", cache)).count()
+
+        then:
+        cache.stats().evictionCount > 0
+        cache.stats().size <= 2
+    }
+
+    def "batches are weighed by the provided weigher"() {
+        given:
+        // weigh by the sum of the elements; batch weights 1, 21, 41, 61, 81 total more than the maximum
+        def cache = BatchCache.create(1, TimeUnit.MINUTES, 130, { elements -> elements.sum() as int })
+
+        when:
+        MoreStreams.batchLoadingStream(BatchSuppliers.caching(batchSupplier, "source", cache)).count()
+
+        then:
+        cache.stats().evictionCount > 0
+    }
+
+    def "supplier exceptions are propagated"() {
+        given:
+        def cache = BatchCache.create(1, TimeUnit.MINUTES, 4)
+
+        when:
+        BatchSuppliers.caching({ nextToken -> throw new IllegalArgumentException("failed") }, "source", cache).nextBatch(null)
+
+        then:
+        thrown(IllegalArgumentException)
+        cache.stats().loadExceptionCount == 1
+    }
+}
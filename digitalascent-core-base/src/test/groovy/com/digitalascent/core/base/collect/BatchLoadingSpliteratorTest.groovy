@@ -20,6 +20,12 @@ import com.google.common.base.VerifyException
 import com.google.common.collect.Lists
 import spock.lang.Specification
 
+import java.util.Spliterator
+import java.util.Spliterators
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.stream.Collectors
 
 
@@ -105,4 +111,309 @@ class BatchLoadingSpliteratorTest extends Specification {
         thrown(VerifyException.class)
 
     }
+
+    def "iteration over multiple partitions works"() {
+        when:
+        def partitions = Lists.partition(1..100, 25)
+        def stream = MoreStreams.partitionedBatchLoadingStream(partitions, { List partition ->
+            def lists = Lists.partition(partition, 6)
+            int idx = 0
+            return { nextToken ->
+                return new Batch<>(idx == lists.size() - 1 ? null : idx.toString(), lists.get(idx++))
+            } as BatchSupplier
+        }, 2, 5)
+        def finalList = stream.collect(Collectors.toList())
+
+        then:
+        finalList.size() == 100
+        finalList as Set == (1..100) as Set
+    }
+
+    def "iteration over no partitions works"() {
+        when:
+        def stream = MoreStreams.partitionedBatchLoadingStream([], { partition ->
+            return { nextToken -> Batch.emptyBatch() } as BatchSupplier
+        }, 2, 5)
+        def finalList = stream.collect(Collectors.toList())
+
+        then:
+        finalList.isEmpty()
+    }
+
+    def "iteration over partitions fails when a partition fails"() {
+        when:
+        def stream = MoreStreams.partitionedBatchLoadingStream([1, 2, 3], { partition ->
+            return { nextToken ->
+                if (partition == 2) {
+                    throw new IllegalArgumentException("partition " + partition)
+                }
+                return new Batch<>(null, [partition])
+            } as BatchSupplier
+        }, 3, 5)
+        stream.collect(Collectors.toList())
+
+        then:
+        thrown(IllegalArgumentException.class)
+    }
+
+    def "iteration over multiple batches works with async supplier"() {
+        when:
+        def lists = Lists.partition(1..100, 6)
+        def stream = MoreStreams.asyncBatchLoadingStream({ nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return CompletableFuture.supplyAsync({
+                new Batch<>(idx == lists.size() - 1 ? null : (idx + 1).toString(), lists.get(idx))
+            })
+        }, 3)
+        def finalList = stream.collect(Collectors.toList())
+
+        then:
+        finalList == (1..100).toList()
+    }
+
+    def "iteration over many already completed async batches works"() {
+        when:
+        def stream = MoreStreams.asyncBatchLoadingStream({ nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return CompletableFuture.completedFuture(new Batch<>(idx == 9999 ? null : (idx + 1).toString(), [idx]))
+        }, 3)
+
+        then:
+        stream.count() == 10000
+    }
+
+    def "iteration over async batches fails when batch fails"() {
+        when:
+        def stream = MoreStreams.asyncBatchLoadingStream({ nextToken ->
+            return CompletableFuture.supplyAsync({
+                if (nextToken != null) {
+                    throw new IllegalArgumentException("failed")
+                }
+                return new Batch<>("1", [1])
+            })
+        }, 3)
+        stream.collect(Collectors.toList())
+
+        then:
+        thrown(IllegalArgumentException.class)
+    }
+
+    def "iteration over multiple batches works async with shared executor"() {
+        when:
+        def lists = Lists.partition(1..100, 6)
+        int idx = 0
+        def stream = MoreStreams.queuedBatchLoadingStream({ nextToken ->
+            return new Batch<>(idx == lists.size() - 1 ? null : idx.toString(), lists.get(idx++))
+        }, 5, BatchProducerExecutors.shared())
+        def finalList = stream.collect(Collectors.toList())
+
+        then:
+        finalList == (1..100).toList()
+        BatchProducerExecutors.sharedPoolMetrics().maximumPoolSize == BatchProducerExecutors.SHARED_POOL_MAX_THREADS
+    }
+
+    def "shared executor rejects producers once abandoned streams hold every thread"() {
+        when:
+        def abandoned = (1..BatchProducerExecutors.SHARED_POOL_MAX_THREADS).collect {
+            def stream = MoreStreams.queuedBatchLoadingStream({ nextToken -> new Batch<>(UUID.randomUUID().toString(), [1]) }, 1, BatchProducerExecutors.shared())
+            stream.iterator().next()
+            return stream
+        }
+        MoreStreams.queuedBatchLoadingStream({ nextToken -> new Batch<>(null, [1]) }, 1, BatchProducerExecutors.shared())
+
+        then:
+        thrown(RejectedExecutionException)
+        BatchProducerExecutors.sharedPoolMetrics().rejectedProducers > 0
+
+        when:
+        abandoned.each { it.close() }
+        Thread.sleep(100)
+        def finalList = MoreStreams.queuedBatchLoadingStream({ nextToken -> new Batch<>(null, [1, 2]) }, 1, BatchProducerExecutors.shared())
+                .collect(Collectors.toList())
+
+        then:
+        finalList == [1, 2]
+    }
+
+    def "iteration over partitions works with caller executor"() {
+        when:
+        def executor = Executors.newFixedThreadPool(1)
+        def stream = MoreStreams.partitionedBatchLoadingStream([1, 2, 3], { partition ->
+            return { nextToken -> new Batch<>(null, [partition]) } as BatchSupplier
+        }, 3, 5, executor)
+        def finalList = stream.collect(Collectors.toList())
+        executor.shutdown()
+
+        then:
+        finalList as Set == [1, 2, 3] as Set
+    }
+
+    def "closing short-circuited async stream stops producer"() {
+        when:
+        def calls = new AtomicInteger()
+        def stream = MoreStreams.queuedBatchLoadingStream({ nextToken ->
+            int call = calls.incrementAndGet()
+            return new Batch<>(call.toString(), [call])
+        }, 2)
+        def first = stream.findFirst()
+        stream.close()
+        Thread.sleep(100)
+        def callsAfterClose = calls.get()
+        Thread.sleep(200)
+
+        then:
+        first.get() == 1
+        calls.get() == callsAfterClose
+    }
+
+    def "closing short-circuited async supplier stream stops fetching"() {
+        when:
+        def calls = new AtomicInteger()
+        def stream = MoreStreams.asyncBatchLoadingStream({ nextToken ->
+            int call = calls.incrementAndGet()
+            return CompletableFuture.supplyAsync({ new Batch<>(call.toString(), [call]) })
+        }, 2)
+        def first = stream.findFirst()
+        stream.close()
+        Thread.sleep(100)
+        def callsAfterClose = calls.get()
+        Thread.sleep(200)
+
+        then:
+        first.get() == 1
+        calls.get() == callsAfterClose
+    }
+
+    def "adaptive stream loads all batches and grows page size for starved consumer"() {
+        when:
+        def pageSizeHints = Collections.synchronizedList([])
+        def stream = MoreStreams.adaptiveBatchLoadingStream({ String nextToken, int pageSizeHint ->
+            pageSizeHints << pageSizeHint
+            Thread.sleep(5)
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return new Batch<>(idx == 9 ? null : (idx + 1).toString(), Collections.nCopies(pageSizeHint, idx))
+        } as PageSizeHintedBatchSupplier, new AdaptiveBatchSettings(1, 4, 10, 100))
+        def count = stream.count()
+
+        then:
+        pageSizeHints.size() == 10
+        count == pageSizeHints.sum()
+        pageSizeHints.first() == 10
+        pageSizeHints.last() > 10
+        pageSizeHints.every { it <= 100 }
+    }
+
+    def "weight budget limits queued batches regardless of queue size"() {
+        when:
+        def produced = new AtomicInteger()
+        def consumed = new AtomicInteger()
+        def maxAhead = new AtomicInteger()
+        def stream = MoreStreams.queuedBatchLoadingStreamBuilder({ String nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            maxAhead.accumulateAndGet(produced.incrementAndGet() - consumed.get(), { x, y -> Math.max(x, y) })
+            return new Batch<>(idx == 49 ? null : (idx + 1).toString(), [idx])
+        } as BatchSupplier<Integer>)
+                .withQueueSize(50)
+                .withWeightBudget({ elements -> 1000L * elements.size() }, 3000)
+                .build()
+        def count = stream.peek({
+            Thread.sleep(1)
+            consumed.incrementAndGet()
+        }).count()
+
+        then:
+        count == 50
+        // three queued batches, plus one being consumed and one waiting to be queued
+        maxAhead.get() <= 5
+    }
+
+    def "batch heavier than weight budget is still loaded"() {
+        when:
+        def lists = Lists.partition(1..100, 10)
+        def stream = MoreStreams.queuedBatchLoadingStreamBuilder({ String nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return new Batch<>(idx == lists.size() - 1 ? null : (idx + 1).toString(), lists.get(idx))
+        } as BatchSupplier<Integer>)
+                .withWeightBudget({ elements -> 1000L }, 10)
+                .build()
+
+        then:
+        stream.count() == 100
+    }
+
+    def "parallel stream processes all batches in order"() {
+        when:
+        def lists = Lists.partition((0..<1000).toList(), 10)
+        def stream = MoreStreams.queuedBatchLoadingStream({ String nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return new Batch<>(idx == lists.size() - 1 ? null : (idx + 1).toString(), lists.get(idx))
+        } as BatchSupplier<Integer>, 5)
+        def result = stream.parallel().map({ it * 2 }).collect(Collectors.toList())
+
+        then:
+        result == (0..<1000).collect { it * 2 }
+    }
+
+    def "batch spliterator splits off sized batches"() {
+        when:
+        def lists = Lists.partition((0..<30).toList(), 10)
+        def batches = Spliterators.spliterator(lists, Spliterator.ORDERED)
+        def spliterator = new BatchElementSpliterator<Integer>(batches)
+        def first = []
+        spliterator.tryAdvance({ first << it })
+        def split = spliterator.trySplit()
+        def secondSplit = spliterator.trySplit()
+        def remaining = []
+        spliterator.forEachRemaining({ remaining << it })
+
+        then:
+        first == [0]
+        split.hasCharacteristics(Spliterator.SIZED)
+        split.estimateSize() == 9
+        secondSplit.estimateSize() == 10
+        remaining == (20..<30).toList()
+        spliterator.trySplit() == null
+        spliterator.estimateSize() == 0
+    }
+
+    def "batch spliterator stops splitting once the split limit is reached"() {
+        when:
+        def batchCount = BatchElementSpliterator.MAX_SPLIT_BATCHES + 10
+        def batches = Spliterators.spliterator((0..<batchCount).collect { [it] }, Spliterator.ORDERED)
+        def spliterator = new BatchElementSpliterator<Integer>(batches)
+        def splits = []
+        def split
+        while ((split = spliterator.trySplit()) != null) {
+            split.forEachRemaining({ splits << it })
+        }
+        def remaining = []
+        spliterator.forEachRemaining({ remaining << it })
+
+        then:
+        splits == (0..<BatchElementSpliterator.MAX_SPLIT_BATCHES).toList()
+        remaining == (BatchElementSpliterator.MAX_SPLIT_BATCHES..<batchCount).toList()
+    }
+
+    def "listener is notified of fetches and queueing"() {
+        when:
+        def metrics = new BatchStreamMetrics()
+        def lists = Lists.partition((0..<100).toList(), 10)
+        def count = MoreStreams.queuedBatchLoadingStreamBuilder({ String nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return new Batch<>(idx == lists.size() - 1 ? null : (idx + 1).toString(), lists.get(idx))
+        } as BatchSupplier<Integer>)
+                .withQueueSize(2)
+                .withListener(metrics)
+                .build()
+                .count()
+        def stats = metrics.stats()
+
+        then:
+        count == 100
+        stats.batchesFetched == 10
+        stats.elementsFetched == 100
+        stats.fetchLatencyHistogram.values().sum() == 10
+        stats.peakQueuedBatches >= 1
+        stats.peakQueuedBatches <= 2
+    }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class BatchStreamMetricsTest extends Specification {
+
+    def "metrics are accumulated"() {
+        when:
+        def metrics = new BatchStreamMetrics()
+        metrics.onBatchFetched(10, TimeUnit.MICROSECONDS.toNanos(500))
+        metrics.onBatchFetched(20, TimeUnit.MILLISECONDS.toNanos(7))
+        metrics.onBatchFetched(BatchStreamListener.UNKNOWN_SIZE, TimeUnit.SECONDS.toNanos(30))
+        metrics.onProducerBlocked(TimeUnit.MILLISECONDS.toNanos(5))
+        metrics.onProducerBlocked(TimeUnit.MILLISECONDS.toNanos(10))
+        metrics.onConsumerWaited(TimeUnit.MILLISECONDS.toNanos(3))
+        metrics.onBatchQueued(4)
+        metrics.onBatchQueued(2)
+        def stats = metrics.stats()
+
+        then:
+        stats.batchesFetched == 3
+        stats.elementsFetched == 30
+        stats.fetchLatencyHistogram[1L] == 1
+        stats.fetchLatencyHistogram[10L] == 1
+        stats.fetchLatencyHistogram[Long.MAX_VALUE] == 1
+        stats.getProducerBlockedTime(TimeUnit.MILLISECONDS) == 15
+        stats.getConsumerWaitTime(TimeUnit.MILLISECONDS) == 3
+        stats.peakQueuedBatches == 4
+    }
+}
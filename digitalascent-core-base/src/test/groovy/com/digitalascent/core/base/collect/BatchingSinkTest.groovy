@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.IntStream
+
+class BatchingSinkTest extends Specification {
+
+    List<List<Integer>> consumedBatches = Collections.synchronizedList([])
+
+    BatchConsumer<Integer, Integer> batchConsumer = { batch ->
+        consumedBatches << batch
+        return batch.size()
+    }
+
+    def "elements are grouped into batches of the maximum size"() {
+        when:
+        BatchingSink<Integer, Integer> sink = BatchingSink.builder(batchConsumer).withMaxBatchSize(10).build()
+        IntStream.range(0, 25).boxed().forEach(sink)
+        sink.close()
+
+        then:
+        consumedBatches.collect { it.size() } == [10, 10, 5]
+        consumedBatches.flatten() == (0..24).toList()
+    }
+
+    def "batches are flushed when the maximum weight would be exceeded"() {
+        given:
+        BatchingSink<Integer, Integer> sink = BatchingSink.builder(batchConsumer)
+                .withMaxBatchWeight({ Integer i -> i as long }, 10)
+                .build()
+
+        when:
+        def first = sink.add(4)
+        sink.add(4)
+        def second = sink.add(3)
+        def third = sink.add(20)
+        sink.close()
+
+        then:
+        consumedBatches == [[4, 4], [3], [20]]
+        first.get() == 2
+        second.get() == 1
+        third.get() == 1
+    }
+
+    def "partial batch is flushed after lingering"() {
+        given:
+        BatchingSink<Integer, Integer> sink = BatchingSink.builder(batchConsumer)
+                .withMaxLinger(50, TimeUnit.MILLISECONDS)
+                .build()
+
+        when:
+        def result = sink.add(1)
+
+        then:
+        result.get(5, TimeUnit.SECONDS) == 1
+        consumedBatches == [[1]]
+
+        cleanup:
+        sink.close()
+    }
+
+    def "concurrent flushes are limited"() {
+        given:
+        AtomicInteger concurrentFlushes = new AtomicInteger()
+        AtomicInteger maxConcurrentFlushes = new AtomicInteger()
+        BatchConsumer<Integer, Integer> slowConsumer = { batch ->
+            maxConcurrentFlushes.accumulateAndGet(concurrentFlushes.incrementAndGet(), { a, b -> Math.max(a, b) })
+            Thread.sleep(10)
+            concurrentFlushes.decrementAndGet()
+            return batch.size()
+        }
+        BatchingSink<Integer, Integer> sink = BatchingSink.builder(slowConsumer).withMaxBatchSize(2).withMaxConcurrentFlushes(3).build()
+
+        when:
+        IntStream.range(0, 40).boxed().forEach(sink)
+        sink.close()
+
+        then:
+        maxConcurrentFlushes.get() <= 3
+        maxConcurrentFlushes.get() > 1
+    }
+
+    def "close throws batch failure"() {
+        given:
+        BatchingSink<Integer, Integer> sink = BatchingSink.builder({ batch -> throw new IllegalArgumentException("failed") } as BatchConsumer)
+                .withMaxBatchSize(2)
+                .build()
+
+        when:
+        def result = sink.add(1)
+        sink.add(2)
+        sink.close()
+
+        then:
+        thrown(IllegalArgumentException)
+        result.isCompletedExceptionally()
+    }
+
+    def "elements cannot be added once closed"() {
+        given:
+        BatchingSink<Integer, Integer> sink = BatchingSink.builder(batchConsumer).build()
+        sink.close()
+
+        when:
+        sink.add(1)
+
+        then:
+        thrown(IllegalStateException)
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import com.google.common.collect.Lists
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Collectors
+
+class BroadcastBatchStreamTest extends Specification {
+
+    def lists = Lists.partition((0..<1000).toList(), 10)
+    def fetches = new AtomicInteger()
+    def batchSupplier = { String nextToken ->
+        fetches.incrementAndGet()
+        int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+        return new Batch<>(idx == lists.size() - 1 ? null : (idx + 1).toString(), lists.get(idx))
+    } as BatchSupplier<Integer>
+    def executor = Executors.newCachedThreadPool()
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def consumeAsync(Closure consumer) {
+        return executor.submit(consumer as Callable)
+    }
+
+    def "each consumer receives all elements from a single fetch of each batch"() {
+        when:
+        def streams = MoreStreams.broadcast(batchSupplier, 3, 2)
+        def results = streams.collect { stream -> consumeAsync({ stream.collect(Collectors.toList()) }) }
+                .collect { it.get() }
+
+        then:
+        results.size() == 3
+        results.every { it == (0..<1000).toList() }
+        fetches.get() == 100
+    }
+
+    def "closed consumer doesn't block other consumers"() {
+        when:
+        def streams = MoreStreams.broadcast(batchSupplier, 2, 1)
+        def first = consumeAsync({
+            def stream = streams[0]
+            try {
+                return stream.limit(5).count()
+            } finally {
+                stream.close()
+            }
+        })
+        def second = consumeAsync({ streams[1].count() })
+
+        then:
+        first.get() == 5
+        second.get() == 1000
+    }
+
+    def "failure is propagated to all consumers"() {
+        when:
+        def streams = MoreStreams.broadcast({ String nextToken ->
+            if (nextToken != null) {
+                throw new IllegalStateException("failed")
+            }
+            return new Batch<>("1", [1, 2, 3])
+        } as BatchSupplier<Integer>, 2, 1)
+        def futures = streams.collect { stream -> consumeAsync({ stream.count() }) }
+        def failures = futures.collect {
+            try {
+                it.get()
+                return null
+            } catch (ExecutionException e) {
+                return e.cause
+            }
+        }
+
+        then:
+        failures.every { it instanceof IllegalStateException }
+    }
+}
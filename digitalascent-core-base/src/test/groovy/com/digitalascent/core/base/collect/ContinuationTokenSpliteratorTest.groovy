@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.stream.Collectors
+import java.util.stream.StreamSupport
+
+class ContinuationTokenSpliteratorTest extends Specification {
+
+    def "all responses are streamed"() {
+        when:
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            if (previousResponse == 9) {
+                return null
+            }
+            return CompletableFuture.supplyAsync({ previousResponse == null ? 0 : previousResponse + 1 })
+        }, 2)
+        def responses = StreamSupport.stream(spliterator, false).map({ it.get() }).collect(Collectors.toList())
+
+        then:
+        responses == (0..9).toList()
+    }
+
+    def "closing stream stops requests"() {
+        when:
+        def calls = new AtomicInteger()
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            calls.incrementAndGet()
+            return CompletableFuture.supplyAsync({
+                Thread.sleep(10)
+                previousResponse == null ? 0 : previousResponse + 1
+            })
+        }, 2)
+        def stream = StreamSupport.stream(spliterator, false).onClose({ spliterator.close() })
+        def first = stream.findFirst().get().get()
+        stream.close()
+        Thread.sleep(100)
+        def callsAfterClose = calls.get()
+        Thread.sleep(200)
+
+        then:
+        first == 0
+        calls.get() == callsAfterClose
+    }
+
+    def "weight budget defers requests until responses are consumed"() {
+        when:
+        def requested = new AtomicInteger()
+        def consumed = new AtomicInteger()
+        def maxAhead = new AtomicInteger()
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            if (previousResponse == 19) {
+                return null
+            }
+            maxAhead.accumulateAndGet(requested.incrementAndGet() - consumed.get(), { x, y -> Math.max(x, y) })
+            return CompletableFuture.supplyAsync({ previousResponse == null ? 0 : previousResponse + 1 })
+        }, 10, { Integer response -> 100L }, 250)
+        def responses = StreamSupport.stream(spliterator, false).map({
+            def response = it.get()
+            Thread.sleep(5)
+            consumed.incrementAndGet()
+            response
+        }).collect(Collectors.toList())
+
+        then:
+        responses == (0..19).toList()
+        maxAhead.get() <= 4
+    }
+
+    def "listener is notified of response sizes"() {
+        when:
+        def metrics = new BatchStreamMetrics()
+        // each response is a page of [response index] elements
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            if (previousResponse == 4) {
+                return null
+            }
+            return CompletableFuture.completedFuture(previousResponse == null ? 0 : previousResponse + 1)
+        }, 2, null, 0, metrics, { Integer response -> response })
+        def count = StreamSupport.stream(spliterator, false).count()
+        def stats = metrics.stats()
+
+        then:
+        count == 5
+        stats.batchesFetched == 5
+        stats.elementsFetched == 0 + 1 + 2 + 3 + 4
+    }
+
+    def "already completed responses are chained without recursion"() {
+        when:
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            if (previousResponse == 99999) {
+                return null
+            }
+            return CompletableFuture.completedFuture(previousResponse == null ? 0 : previousResponse + 1)
+        }, 5)
+        def count = StreamSupport.stream(spliterator, false).map({ it.get() }).count()
+
+        then:
+        count == 100000
+    }
+
+    def "completing thread is not blocked when the queue is full"() {
+        given:
+        def completionExecutor = Executors.newSingleThreadExecutor()
+        def maxCompletionMillis = new AtomicLong()
+
+        when:
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            if (previousResponse == 19) {
+                return null
+            }
+            def response = new CompletableFuture<Integer>()
+            completionExecutor.execute({
+                long start = System.nanoTime()
+                response.complete(previousResponse == null ? 0 : previousResponse + 1)
+                maxCompletionMillis.accumulateAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), { x, y -> Math.max(x, y) })
+            })
+            return response
+        }, 2)
+        def responses = StreamSupport.stream(spliterator, false).map({
+            Thread.sleep(10)
+            it.get()
+        }).collect(Collectors.toList())
+
+        then:
+        responses == (0..19).toList()
+        maxCompletionMillis.get() < 10
+
+        cleanup:
+        completionExecutor.shutdown()
+    }
+
+    def "request failure is propagated to the stream"() {
+        when:
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            if (previousResponse == 2) {
+                throw new IllegalStateException("request failed")
+            }
+            return CompletableFuture.completedFuture(previousResponse == null ? 0 : previousResponse + 1)
+        }, 2)
+        StreamSupport.stream(spliterator, false).map({ it.get() }).collect(Collectors.toList())
+
+        then:
+        def e = thrown(ExecutionException)
+        e.cause instanceof IllegalStateException
+    }
+
+    def "parallel stream splitting does not request the whole chain ahead of consumption"() {
+        when:
+        def requested = new AtomicInteger()
+        def consumed = new AtomicInteger()
+        def maxAhead = new AtomicInteger()
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse ->
+            if (previousResponse == 4999) {
+                return null
+            }
+            requested.incrementAndGet()
+            return CompletableFuture.completedFuture(previousResponse == null ? 0 : previousResponse + 1)
+        }, 4)
+        def sum = StreamSupport.stream(spliterator, true).onClose({ spliterator.close() }).mapToLong({
+            def response = it.get()
+            maxAhead.accumulateAndGet(requested.get() - consumed.get(), { x, y -> Math.max(x, y) })
+            Thread.sleep(1)
+            consumed.incrementAndGet()
+            response
+        }).sum()
+
+        then:
+        sum == (0..4999).sum()
+        // responses split off, queued and outstanding, plus those being processed
+        maxAhead.get() <= ContinuationTokenSpliterator.MAX_SPLIT_RESPONSES + 4 + 1 + ForkJoinPool.commonPool().parallelism + 1
+    }
+
+    def "adaptive page size hint grows while the stream waits for responses"() {
+        given:
+        def scheduler = Executors.newSingleThreadScheduledExecutor()
+        def pageSizeHints = Collections.synchronizedList([])
+
+        when:
+        def spliterator = new ContinuationTokenSpliterator<Integer>({ Integer previousResponse, int pageSizeHint ->
+            if (previousResponse == 19) {
+                return null
+            }
+            pageSizeHints << pageSizeHint
+            def response = new CompletableFuture<Integer>()
+            scheduler.schedule({ response.complete(previousResponse == null ? 0 : previousResponse + 1) }, 5, TimeUnit.MILLISECONDS)
+            return response
+        } as PageSizeHintedResponseSource<Integer>, new AdaptiveBatchSettings(1, 4, 10, 100), null, null)
+        def responses = StreamSupport.stream(spliterator, false).map({
+            assert it.isDone()
+            it.get()
+        }).collect(Collectors.toList())
+
+        then:
+        responses == (0..19).toList()
+        pageSizeHints.first() == 10
+        pageSizeHints.last() == 100
+
+        cleanup:
+        scheduler.shutdown()
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.stream.Collectors
+import java.util.stream.IntStream
+
+class ExternalSortStreamTest extends Specification {
+
+    Path spillDirectory = Files.createTempDirectory("sort")
+
+    ElementSerializer<List<Integer>> serializer = new ElementSerializer<List<Integer>>() {
+        @Override
+        void write(List<Integer> element, DataOutput output) throws IOException {
+            output.writeInt(element[0])
+            output.writeInt(element[1])
+        }
+
+        @Override
+        List<Integer> read(DataInput input) throws IOException {
+            return [input.readInt(), input.readInt()]
+        }
+    }
+
+    // pairs of [sort key, input position]
+    List<List<Integer>> elements = IntStream.range(0, 1000).collect({ [(it * 7919) % 100, it] })
+
+    def "elements exceeding the memory budget are sorted via run files"() {
+        when:
+        def sorted = MoreStreams.sorted(elements.stream(), Comparator.comparing({ List<Integer> e -> e[0] }), serializer, { 1L }, 100, spillDirectory)
+                .collect(Collectors.toList())
+
+        then:
+        sorted == elements.sort(false, { a, b -> a[0] <=> b[0] ?: a[1] <=> b[1] })
+        Files.list(spillDirectory).count() == 0
+    }
+
+    def "run files beyond the merge fan-in are merged in passes"() {
+        when:
+        // runs of 6 elements; more runs than can be merged at once
+        def sorted = MoreStreams.sorted(elements.stream(), Comparator.comparing({ List<Integer> e -> e[0] }), serializer, { 1L }, 5, spillDirectory)
+                .collect(Collectors.toList())
+
+        then:
+        elements.size() / 6 > ExternalSortIterator.MAX_MERGE_FAN_IN
+        sorted == elements.sort(false, { a, b -> a[0] <=> b[0] ?: a[1] <=> b[1] })
+        Files.list(spillDirectory).count() == 0
+    }
+
+    def "elements within the memory budget are sorted in memory"() {
+        when:
+        def sorted = MoreStreams.sorted(elements.stream(), Comparator.comparing({ List<Integer> e -> e[0] }), serializer, { 1L }, 10000, spillDirectory)
+                .map({ it[0] })
+                .collect(Collectors.toList())
+
+        then:
+        sorted == elements.collect { it[0] }.sort()
+        Files.list(spillDirectory).count() == 0
+    }
+
+    def "closing stream deletes run files"() {
+        when:
+        def stream = MoreStreams.sorted(elements.stream(), Comparator.comparing({ List<Integer> e -> e[0] }), serializer, { 1L }, 100, spillDirectory)
+        def first = stream.findFirst().get()
+        def runFiles = Files.list(spillDirectory).count()
+        stream.close()
+
+        then:
+        first == [0, 0]
+        runFiles == 9
+        Files.list(spillDirectory).count() == 0
+    }
+
+    def "failing serializer deletes run files"() {
+        when:
+        def failingSerializer = new ElementSerializer<List<Integer>>() {
+            @Override
+            void write(List<Integer> element, DataOutput output) throws IOException {
+                if (element[1] == 500) {
+                    throw new IllegalStateException("failed")
+                }
+                serializer.write(element, output)
+            }
+
+            @Override
+            List<Integer> read(DataInput input) throws IOException {
+                return serializer.read(input)
+            }
+        }
+        MoreStreams.sorted(elements.stream(), Comparator.comparing({ List<Integer> e -> e[0] }), failingSerializer, { 1L }, 100, spillDirectory)
+                .findFirst()
+
+        then:
+        thrown(IllegalStateException)
+        Files.list(spillDirectory).count() == 0
+    }
+
+    def "negative weights are rejected"() {
+        when:
+        MoreStreams.sorted(elements.stream(), Comparator.comparing({ List<Integer> e -> e[0] }), serializer, { e -> e[1] < 500 ? 1L : -1L }, 100, spillDirectory)
+                .findFirst()
+
+        then:
+        thrown(IllegalArgumentException)
+        Files.list(spillDirectory).count() == 0
+    }
+}
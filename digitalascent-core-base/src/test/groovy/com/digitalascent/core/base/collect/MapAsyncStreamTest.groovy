@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Collectors
+import java.util.stream.IntStream
+
+class MapAsyncStreamTest extends Specification {
+
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(4)
+    AtomicInteger inFlight = new AtomicInteger()
+    AtomicInteger maxInFlight = new AtomicInteger()
+
+    // completes after a delay that varies by element, so that later elements may complete first
+    CompletableFuture<Integer> doubleAsync(Integer element) {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), { x, y -> Math.max(x, y) })
+        def result = new CompletableFuture<Integer>()
+        executor.schedule({
+            inFlight.decrementAndGet()
+            result.complete(element * 2)
+        }, (element % 5) * 3, TimeUnit.MILLISECONDS)
+        return result
+    }
+
+    def cleanup() {
+        executor.shutdown()
+    }
+
+    def "results are streamed in upstream order"() {
+        when:
+        def results = MoreStreams.mapAsync(IntStream.range(0, 100).boxed(), this.&doubleAsync, 8, true).collect(Collectors.toList())
+
+        then:
+        results == (0..99).collect { it * 2 }
+        maxInFlight.get() <= 8
+        maxInFlight.get() > 1
+    }
+
+    def "unordered results are streamed as they complete"() {
+        when:
+        def results = MoreStreams.mapAsync(IntStream.range(0, 100).boxed(), this.&doubleAsync, 8, false).collect(Collectors.toList())
+
+        then:
+        results as Set == (0..99).collect { it * 2 } as Set
+        maxInFlight.get() <= 8
+    }
+
+    def "upstream is only pulled as results are consumed"() {
+        given:
+        def pulled = new AtomicInteger()
+
+        when:
+        def stream = MoreStreams.mapAsync(IntStream.range(0, 100).boxed().peek({ pulled.incrementAndGet() }), this.&doubleAsync, 4, true)
+        def first = stream.limit(2).collect(Collectors.toList())
+        stream.close()
+
+        then:
+        first == [0, 2]
+        pulled.get() <= 6
+    }
+
+    def "failed result fails the stream"() {
+        when:
+        MoreStreams.mapAsync(IntStream.range(0, 10).boxed(), { Integer element ->
+            element == 5 ? CompletableFuture.supplyAsync({ throw new IllegalArgumentException("failed") }) : CompletableFuture.completedFuture(element)
+        }, 2, true).count()
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+class MappedFileDataInputTest extends Specification {
+
+    def "lines are read as for DataInputStream"() {
+        when:
+        def file = Files.createTempFile("lines", ".txt")
+        file.bytes = "first\r\nsecond\rthird\n\nlast".bytes
+        def input = new MappedFileDataInput(file)
+        def lines = (1..6).collect { input.readLine() }
+        input.close()
+
+        then:
+        lines == ["first", "second", "third", "", "last", null]
+    }
+
+    def "file can be replaced once closed"() {
+        when:
+        def file = Files.createTempFile("mapped", ".bin")
+        file.bytes = [0, 0, 0, 42] as byte[]
+        def replacement = Files.createTempFile(file.parent, "replacement", ".bin")
+        def input = new MappedFileDataInput(file)
+        def value = input.readInt()
+        input.close()
+        Files.move(replacement, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        input.readInt()
+
+        then:
+        value == 42
+        Files.size(file) == 0
+        thrown(IOException)
+    }
+}
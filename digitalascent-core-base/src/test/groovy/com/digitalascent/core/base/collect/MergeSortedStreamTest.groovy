@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.stream.Collectors
+
+class MergeSortedStreamTest extends Specification {
+
+    static BatchSupplier<Integer> sortedSupplier(List<List<Integer>> batches) {
+        return { nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return new Batch<>(idx == batches.size() - 1 ? null : (idx + 1).toString(), batches[idx])
+        }
+    }
+
+    def "sorted sources are merged in order"() {
+        when:
+        def result = MoreStreams.mergeSorted(Comparator.naturalOrder(),
+                sortedSupplier([[1, 4], [7, 10]]),
+                sortedSupplier([[2, 5, 8]]),
+                sortedSupplier([[3], [6], [9]])).collect(Collectors.toList())
+
+        then:
+        result == (1..10).toList()
+    }
+
+    def "equal elements are streamed in source order"() {
+        given:
+        Comparator<String> byLength = Comparator.comparingInt({ String s -> s.length() })
+
+        when:
+        def result = MoreStreams.mergeSorted(byLength,
+                { nextToken -> new Batch<>(null, ["a", "bb"]) } as BatchSupplier<String>,
+                { nextToken -> new Batch<>(null, ["c", "dd"]) } as BatchSupplier<String>).collect(Collectors.toList())
+
+        then:
+        result == ["a", "c", "bb", "dd"]
+    }
+
+    def "merge function collapses equal elements"() {
+        when:
+        def result = MoreStreams.mergeSorted(Comparator.naturalOrder(), { a, b -> a + b },
+                [sortedSupplier([[1, 2], [2, 3]]), sortedSupplier([[2, 4]])]).collect(Collectors.toList())
+
+        then:
+        result == [1, 6, 3, 4]
+    }
+
+    def "unsorted source fails the stream"() {
+        when:
+        MoreStreams.mergeSorted(Comparator.naturalOrder(), sortedSupplier([[1, 3], [2]])).count()
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "creating the stream does not wait for the sources"() {
+        given:
+        def sourcesReleased = new CountDownLatch(1)
+        boolean released = false
+        BatchSupplier<Integer> blockingSupplier = { nextToken ->
+            released = sourcesReleased.await(5, TimeUnit.SECONDS)
+            return new Batch<>(null, [1, 3])
+        }
+
+        when:
+        def stream = MoreStreams.mergeSorted(Comparator.naturalOrder(), blockingSupplier, sortedSupplier([[2]]))
+        sourcesReleased.countDown()
+        def result = stream.collect(Collectors.toList())
+
+        then:
+        released
+        result == [1, 2, 3]
+    }
+
+    def "no sources is an empty stream"() {
+        expect:
+        MoreStreams.mergeSorted(Comparator.naturalOrder()).count() == 0
+    }
+}
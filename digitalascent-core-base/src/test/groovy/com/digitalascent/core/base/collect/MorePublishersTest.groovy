@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import com.google.common.base.VerifyException
+import org.reactivestreams.Publisher
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class MorePublishersTest extends Specification {
+
+    def "batch publisher emits all batches"() {
+        when:
+        def result = consume(MorePublishers.batchLoadingPublisher({ nextToken ->
+            int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+            return new Batch<>(idx == 3 ? null : (idx + 1).toString(), [idx * 10, idx * 10 + 1])
+        }), 3)
+
+        then:
+        result.elements == [0, 1, 10, 11, 20, 21, 30, 31]
+        result.completed
+        result.error == null
+    }
+
+    def "batch publisher only loads batches on demand"() {
+        when:
+        int loads = 0
+        def publisher = MorePublishers.batchLoadingPublisher({ nextToken ->
+            loads++
+            return new Batch<>("" + loads, [loads])
+        })
+        Subscription subscription = null
+        publisher.subscribe([onSubscribe: { s -> subscription = s }, onNext: { e -> }, onError: { t -> }, onComplete: {}] as Subscriber)
+        subscription.request(2)
+
+        then:
+        loads == 2
+    }
+
+    def "batch publisher propagates supplier exception"() {
+        when:
+        def result = consume(MorePublishers.batchLoadingPublisher({ nextToken ->
+            throw new IllegalArgumentException("failed")
+        }), 1)
+
+        then:
+        result.error instanceof IllegalArgumentException
+    }
+
+    def "batch publisher fails when token repeated"() {
+        when:
+        def result = consume(MorePublishers.batchLoadingPublisher({ nextToken -> new Batch<>("abc", [1]) }), 1)
+
+        then:
+        result.elements == [1]
+        result.error instanceof VerifyException
+    }
+
+    def "non-positive request is signalled as an error after the current signal returns"() {
+        when:
+        def publisher = MorePublishers.batchLoadingPublisher({ nextToken -> new Batch<>("next", [1, 2, 3]) })
+        def signals = []
+        boolean inOnNext = false
+        Subscription subscription = null
+        publisher.subscribe([
+                onSubscribe: { s -> subscription = s },
+                onNext     : { e ->
+                    inOnNext = true
+                    signals << e
+                    subscription.request(0)
+                    inOnNext = false
+                },
+                onError    : { t -> signals << (inOnNext ? "nested error" : t.getClass()) },
+                onComplete : { signals << "complete" }] as Subscriber)
+        subscription.request(2)
+
+        then:
+        signals == [1, IllegalArgumentException]
+    }
+
+    def "continuation publisher emits all responses"() {
+        when:
+        def result = consume(MorePublishers.continuationPublisher({ Integer previousResponse ->
+            if (previousResponse == 5) {
+                return null
+            }
+            return CompletableFuture.supplyAsync({ previousResponse == null ? 0 : previousResponse + 1 })
+        }), 1)
+
+        then:
+        result.elements == [0, 1, 2, 3, 4, 5]
+        result.completed
+    }
+
+    def "continuation publisher propagates failed response"() {
+        when:
+        def result = consume(MorePublishers.continuationPublisher({ previousResponse ->
+            def future = new CompletableFuture()
+            future.completeExceptionally(new IllegalStateException("failed"))
+            return future
+        }), 1)
+
+        then:
+        result.error instanceof IllegalStateException
+    }
+
+    private static Map consume(Publisher publisher, int requestSize) {
+        def result = [elements: [], completed: false, error: null]
+        def latch = new CountDownLatch(1)
+        publisher.subscribe(new Subscriber() {
+            Subscription subscription
+            int received
+
+            void onSubscribe(Subscription s) {
+                subscription = s
+                s.request(requestSize)
+            }
+
+            void onNext(Object o) {
+                result.elements << o
+                if (++received % requestSize == 0) {
+                    subscription.request(requestSize)
+                }
+            }
+
+            void onError(Throwable t) {
+                result.error = t
+                latch.countDown()
+            }
+
+            void onComplete() {
+                result.completed = true
+                latch.countDown()
+            }
+        })
+        latch.await(10, TimeUnit.SECONDS)
+        return result
+    }
+}
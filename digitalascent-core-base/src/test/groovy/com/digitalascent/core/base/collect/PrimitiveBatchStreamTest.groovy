@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.collect
+
+import com.google.common.base.VerifyException
+import spock.lang.Specification
+
+class PrimitiveBatchStreamTest extends Specification {
+
+    IntBatchSupplier intBatchSupplier = { nextToken ->
+        int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+        return new IntBatch(idx == 4 ? null : (idx + 1).toString(), [idx * 10, idx * 10 + 1] as int[])
+    }
+
+    def "int batches are streamed in order"() {
+        expect:
+        MoreStreams.intBatchLoadingStream(intBatchSupplier).toArray() == [0, 1, 10, 11, 20, 21, 30, 31, 40, 41] as int[]
+    }
+
+    def "parallel int stream processes all batches in order"() {
+        expect:
+        MoreStreams.intBatchLoadingStream(intBatchSupplier).parallel().map({ it * 2 }).toArray() == [0, 2, 20, 22, 40, 42, 60, 62, 80, 82] as int[]
+    }
+
+    def "long and double batches are streamed from array ranges"() {
+        given:
+        LongBatchSupplier longBatchSupplier = { nextToken -> new LongBatch(nextToken == null ? "1" : null, [1L, 2L, 3L, 4L] as long[], 1, 3) }
+        DoubleBatchSupplier doubleBatchSupplier = { nextToken -> new DoubleBatch(null, [0.5d, 1.5d] as double[]) }
+
+        expect:
+        MoreStreams.longBatchLoadingStream(longBatchSupplier).toArray() == [2L, 3L, 2L, 3L] as long[]
+        MoreStreams.doubleBatchLoadingStream(doubleBatchSupplier).sum() == 2.0d
+    }
+
+    def "empty batches are skipped"() {
+        given:
+        IntBatchSupplier supplier = { nextToken -> nextToken == null ? new IntBatch("1", [] as int[]) : new IntBatch(null, [7] as int[]) }
+
+        expect:
+        MoreStreams.intBatchLoadingStream(supplier).toArray() == [7] as int[]
+    }
+
+    def "repeated token fails the stream"() {
+        given:
+        IntBatchSupplier supplier = { nextToken -> new IntBatch("1", [7] as int[]) }
+
+        when:
+        MoreStreams.intBatchLoadingStream(supplier).count()
+
+        then:
+        thrown(VerifyException)
+    }
+}
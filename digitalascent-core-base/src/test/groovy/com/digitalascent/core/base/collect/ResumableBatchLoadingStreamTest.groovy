@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.util.stream.Collectors
+
+class ResumableBatchLoadingStreamTest extends Specification {
+
+    BatchSupplier<Integer> batchSupplier = { nextToken ->
+        int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+        return new Batch<>(idx == 4 ? null : (idx + 1).toString(), [idx * 10, idx * 10 + 1, idx * 10 + 2])
+    }
+
+    def "stream resumes after last consumed element"() {
+        given:
+        def checkpointStore = new InMemoryCheckpointStore()
+        def consumed = []
+
+        when:
+        MoreStreams.resumableBatchLoadingStream("stream", batchSupplier, checkpointStore, 1).forEach({ element ->
+            if (element == 21) {
+                throw new IllegalStateException("crashed")
+            }
+            consumed << element
+        })
+
+        then:
+        thrown(IllegalStateException)
+        consumed == [0, 1, 2, 10, 11, 12, 20]
+        checkpointStore.load("stream").get() == new BatchCheckpoint("2", 1)
+
+        when:
+        def resumed = MoreStreams.resumableBatchLoadingStream("stream", batchSupplier, checkpointStore, 1).collect(Collectors.toList())
+
+        then:
+        resumed == [21, 22, 30, 31, 32, 40, 41, 42]
+        !checkpointStore.load("stream").isPresent()
+    }
+
+    def "stream resumes at batch boundary when checkpoint interval is zero"() {
+        given:
+        def checkpointStore = new InMemoryCheckpointStore()
+
+        when:
+        MoreStreams.resumableBatchLoadingStream("stream", batchSupplier, checkpointStore, 0).limit(7).count()
+        def resumed = MoreStreams.resumableBatchLoadingStream("stream", batchSupplier, checkpointStore, 0).collect(Collectors.toList())
+
+        then:
+        resumed == [20, 21, 22, 30, 31, 32, 40, 41, 42]
+    }
+
+    def "file checkpoint store persists checkpoints"() {
+        given:
+        def directory = Files.createTempDirectory("checkpoints")
+        def checkpointStore = new FileCheckpointStore(directory)
+
+        when:
+        checkpointStore.save("s3://bucket/prefix", new BatchCheckpoint("token", 42))
+
+        then:
+        new FileCheckpointStore(directory).load("s3://bucket/prefix").get() == new BatchCheckpoint("token", 42)
+        !checkpointStore.load("other").isPresent()
+
+        when:
+        checkpointStore.save("s3://bucket/prefix", new BatchCheckpoint(null, 0))
+
+        then:
+        checkpointStore.load("s3://bucket/prefix").get() == new BatchCheckpoint(null, 0)
+
+        when:
+        checkpointStore.clear("s3://bucket/prefix")
+
+        then:
+        !checkpointStore.load("s3://bucket/prefix").isPresent()
+        directory.toFile().list().length == 0
+    }
+
+    def "file checkpoint store supports long stream ids"() {
+        given:
+        def directory = Files.createTempDirectory("checkpoints")
+        def checkpointStore = new FileCheckpointStore(directory)
+        def streamId = "s3://bucket/" + ("prefix/" * 100)
+
+        when:
+        checkpointStore.save(streamId, new BatchCheckpoint("token", 42))
+
+        then:
+        checkpointStore.load(streamId).get() == new BatchCheckpoint("token", 42)
+        !checkpointStore.load(streamId + "other").isPresent()
+    }
+}
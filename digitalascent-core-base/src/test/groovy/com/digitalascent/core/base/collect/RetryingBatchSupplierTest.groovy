@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.stream.Collectors
+
+class RetryingBatchSupplierTest extends Specification {
+
+    List<String> requestedTokens = []
+    int failures = 0
+
+    BatchSupplier<Integer> flakySupplier = { nextToken ->
+        requestedTokens << nextToken
+        int idx = nextToken == null ? 0 : Integer.parseInt(nextToken)
+        if (idx == 2 && failures++ < 2) {
+            throw new IllegalStateException("throttled")
+        }
+        return new Batch<>(idx == 4 ? null : (idx + 1).toString(), [idx * 10, idx * 10 + 1])
+    }
+
+    def "retryable failures are retried with the same token"() {
+        given:
+        def settings = new BatchRetrySettings(3, 1, 10, TimeUnit.MILLISECONDS, { it instanceof IllegalStateException })
+
+        when:
+        def result = MoreStreams.batchLoadingStream(BatchSuppliers.retrying(flakySupplier, settings)).collect(Collectors.toList())
+
+        then:
+        result == [0, 1, 10, 11, 20, 21, 30, 31, 40, 41]
+        requestedTokens == [null, "1", "2", "2", "2", "3", "4"]
+    }
+
+    def "failure is propagated once attempts are exhausted"() {
+        given:
+        def settings = new BatchRetrySettings(2, 1, 10, TimeUnit.MILLISECONDS, { it instanceof IllegalStateException })
+
+        when:
+        MoreStreams.batchLoadingStream(BatchSuppliers.retrying(flakySupplier, settings)).count()
+
+        then:
+        thrown(IllegalStateException)
+        requestedTokens == [null, "1", "2", "2"]
+    }
+
+    def "non-retryable failures are not retried"() {
+        given:
+        def settings = new BatchRetrySettings(3, 1, 10, TimeUnit.MILLISECONDS, { false })
+
+        when:
+        MoreStreams.batchLoadingStream(BatchSuppliers.retrying(flakySupplier, settings)).count()
+
+        then:
+        thrown(IllegalStateException)
+        requestedTokens == [null, "1", "2"]
+    }
+
+    def "backoff ceiling doubles up to the maximum"() {
+        given:
+        def settings = new BatchRetrySettings(10, 100, 1000, TimeUnit.MILLISECONDS, { true })
+
+        expect:
+        (1..5).collect { TimeUnit.NANOSECONDS.toMillis(settings.backoffCeilingNanos(it)) } == [100, 200, 400, 800, 1000]
+        settings.backoffCeilingNanos(Integer.MAX_VALUE) == TimeUnit.MILLISECONDS.toNanos(1000)
+    }
+
+    def "rate limiter spaces out fetches beyond the burst"() {
+        given:
+        def rateLimiter = BatchRateLimiter.create(50, 2)
+        failures = 2
+
+        when:
+        long start = System.nanoTime()
+        def count = MoreStreams.batchLoadingStream(BatchSuppliers.rateLimited(flakySupplier, rateLimiter)).count()
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then:
+        count == 10
+        // 5 fetches, the first 2 from the burst
+        elapsedMillis >= 50
+
+        when:
+        Thread.sleep(100)
+
+        then:
+        rateLimiter.tryAcquire()
+        rateLimiter.tryAcquire()
+        !rateLimiter.tryAcquire()
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.stream.Collectors
+
+class SnapshotDiffStreamTest extends Specification {
+
+    Path snapshotFile = Files.createTempDirectory("snapshots").resolve("listing.snapshot")
+
+    // entries are [key, etag]
+    ElementSerializer<List<String>> serializer = new ElementSerializer<List<String>>() {
+        @Override
+        void write(List<String> entry, DataOutput output) throws IOException {
+            output.writeUTF(entry[0])
+            output.writeUTF(entry[1])
+        }
+
+        @Override
+        List<String> read(DataInput input) throws IOException {
+            return [input.readUTF(), input.readUTF()]
+        }
+    }
+
+    List<String> diff(List<List<String>> listing) {
+        def changes = MoreStreams.snapshotDiff(listing.stream(), Comparator.comparing({ List<String> entry -> entry[0] }),
+                { previous, current -> previous[1] == current[1] }, serializer, snapshotFile)
+        try {
+            return changes.map({ "${it.type}:${(it.current ?: it.previous)[0]}".toString() }).collect(Collectors.toList())
+        } finally {
+            changes.close()
+        }
+    }
+
+    def "all entries are added without a snapshot"() {
+        expect:
+        diff([["a", "1"], ["b", "1"]]) == ["ADDED:a", "ADDED:b"]
+        Files.exists(snapshotFile)
+    }
+
+    def "changes since the previous snapshot are streamed"() {
+        given:
+        diff([["a", "1"], ["b", "1"], ["c", "1"]])
+
+        expect:
+        diff([["a", "1"], ["b", "2"], ["d", "1"]]) == ["MODIFIED:b", "REMOVED:c", "ADDED:d"]
+        diff([["a", "1"], ["b", "2"], ["d", "1"]]) == []
+        diff([]) == ["REMOVED:a", "REMOVED:b", "REMOVED:d"]
+    }
+
+    def "snapshot is retained if the diff is not completed"() {
+        given:
+        diff([["a", "1"]])
+
+        when:
+        def changes = MoreStreams.snapshotDiff([["b", "1"], ["c", "1"]].stream(), Comparator.comparing({ List<String> entry -> entry[0] }),
+                { previous, current -> previous[1] == current[1] }, serializer, snapshotFile)
+        changes.findFirst()
+        changes.close()
+
+        then:
+        diff([["a", "1"]]) == []
+        Files.list(snapshotFile.parent).count() == 1
+    }
+
+    def "unsorted listing fails the diff"() {
+        when:
+        diff([["b", "1"], ["a", "1"]])
+
+        then:
+        thrown(IllegalStateException)
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class SpscBlockingQueueTest extends Specification {
+
+    def "queue is bounded by capacity"() {
+        when:
+        def queue = new SpscBlockingQueue<Integer>(3)
+        def offered = (1..4).collect { queue.offer(it) }
+
+        then:
+        offered == [true, true, true, false]
+        queue.size() == 3
+        queue.remainingCapacity() == 0
+        !queue.offer(5, 10, TimeUnit.MILLISECONDS)
+        queue.peek() == 1
+        [queue.poll(), queue.poll(), queue.poll()] == [1, 2, 3]
+        queue.poll() == null
+        queue.poll(10, TimeUnit.MILLISECONDS) == null
+        queue.isEmpty()
+    }
+
+    def "elements are transferred in order between producer and consumer threads"() {
+        when:
+        def queue = new SpscBlockingQueue<Integer>(5)
+        def count = 100000
+        def producer = Thread.start {
+            for (int i = 0; i < count; i++) {
+                queue.put(i)
+            }
+        }
+        def received = []
+        for (int i = 0; i < count; i++) {
+            received << queue.take()
+        }
+        producer.join()
+
+        then:
+        received == (0..<count).toList()
+        queue.isEmpty()
+    }
+
+    def "blocked producer is released when the consumer clears the queue"() {
+        when:
+        def queue = new SpscBlockingQueue<Integer>(1)
+        queue.put(1)
+        def producer = Thread.start {
+            queue.put(2)
+        }
+        Thread.sleep(50)
+        queue.clear()
+        producer.join(1000)
+
+        then:
+        !producer.isAlive()
+        queue.poll() == 2
+    }
+
+    def "elements are removed by the consumer, compacting the remaining elements"() {
+        when:
+        def queue = new SpscBlockingQueue<Integer>(8)
+        // wrap the ring buffer so removal crosses the end of the array
+        (1..5).each { queue.offer(it) }
+        (1..5).each { queue.poll() }
+        (1..8).each { queue.offer(it) }
+
+        then:
+        queue.remove(3)
+        !queue.remove(42)
+        queue.removeIf { it % 2 == 0 }
+        queue.toList() == [1, 5, 7]
+        queue.removeAll([7])
+        queue.retainAll([5, 6])
+        queue.toList() == [5]
+        queue.remainingCapacity() == 7
+        (6..12).collect { queue.offer(it) }.every()
+        !queue.offer(13)
+        queue.drainTo([]) == 8
+    }
+
+    def "throwing predicate leaves the queue unchanged"() {
+        when:
+        def queue = new SpscBlockingQueue<Integer>(4)
+        (1..3).each { queue.offer(it) }
+        queue.removeIf { if (it == 3) { throw new IllegalStateException() }; true }
+
+        then:
+        thrown(IllegalStateException)
+        queue.toList() == [1, 2, 3]
+    }
+
+    def "blocked producer is released when the consumer removes an element"() {
+        when:
+        def queue = new SpscBlockingQueue<Integer>(1)
+        queue.put(1)
+        def producer = Thread.start {
+            queue.put(2)
+        }
+        Thread.sleep(50)
+        queue.remove(1)
+        producer.join(1000)
+
+        then:
+        !producer.isAlive()
+        queue.poll() == 2
+    }
+
+    def "interrupted take throws"() {
+        when:
+        def queue = new SpscBlockingQueue<Integer>(1)
+        Thread.currentThread().interrupt()
+        queue.take()
+
+        then:
+        thrown(InterruptedException)
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.digitalascent.core.base.concurrent
+
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.UncheckedTimeoutException
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Collectors
+import java.util.stream.IntStream
+
+class AsyncExecutionGroupTest extends Specification {
+
+    ListeningExecutorService executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(16))
+
+    def cleanup() {
+        executorService.shutdownNow()
+    }
+
+    def "all tasks are run"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService)
+        def completed = new AtomicInteger()
+
+        when:
+        def futures = (1..20).collect { n -> group.execute({ completed.incrementAndGet(); n } as Callable<Integer>) }
+        def result = group.whenAllSucceed({ completed.get() } as Callable<Integer>)
+
+        then:
+        result == 20
+        futures*.get() == (1..20).toList()
+    }
+
+    def "running tasks are limited"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService, 3)
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+
+        when:
+        (1..30).each {
+            group.execute({
+                maxRunning.accumulateAndGet(running.incrementAndGet(), { x, y -> Math.max(x, y) })
+                Thread.sleep(5)
+                running.decrementAndGet()
+            } as Callable<Integer>)
+        }
+        group.whenAllSucceed({ null } as Callable<Void>)
+
+        then:
+        maxRunning.get() == 3
+    }
+
+    def "first failure cancels siblings"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService, 4)
+        def started = new AtomicInteger()
+
+        when:
+        def futures = (1..20).collect { n ->
+            group.execute({
+                started.incrementAndGet()
+                if (n == 1) {
+                    throw new IllegalStateException("failed")
+                }
+                Thread.sleep(5000)
+                n
+            } as Callable<Integer>)
+        }
+        long start = System.nanoTime()
+        group.whenAllSucceed({ null } as Callable<Void>)
+
+        then:
+        thrown(IllegalStateException)
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000
+        futures.drop(1).every { it.isCancelled() }
+        started.get() <= 4
+    }
+
+    def "deadline fails the group"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService, 2, 50, TimeUnit.MILLISECONDS)
+
+        when:
+        def futures = (1..10).collect { group.execute({ Thread.sleep(1000); 1 } as Callable<Integer>) }
+        group.whenAllSucceed({ null } as Callable<Void>)
+
+        then:
+        thrown(UncheckedTimeoutException)
+        futures.every { it.isCancelled() }
+    }
+
+    def "tasks executed from running tasks are awaited"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService, 4)
+        def visited = new AtomicInteger()
+        Closure walk
+        walk = { int depth ->
+            visited.incrementAndGet()
+            if (depth < 5) {
+                4.times { group.execute({ walk(depth + 1) } as Runnable) }
+            }
+        }
+
+        when:
+        group.execute({ walk(0) } as Runnable)
+        def result = group.whenAllSucceed({ visited.get() } as Callable<Integer>)
+
+        then:
+        // 1 + 4 + 16 + 64 + 256 + 1024
+        result == 1365
+    }
+
+    def "tasks are executed concurrently from multiple threads"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService)
+        def completed = new AtomicInteger()
+
+        when:
+        def submitters = (1..4).collect {
+            Thread.start {
+                1000.times { group.execute({ completed.incrementAndGet() } as Callable<Integer>) }
+            }
+        }
+        submitters*.join()
+        def result = group.whenAllSucceed({ completed.get() } as Callable<Integer>)
+
+        then:
+        result == 4000
+    }
+
+    def "results are streamed in completion order"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService)
+        def tasks = [300, 0, 150].stream().map({ int delay -> return { Thread.sleep(delay); delay } as Callable<Integer> })
+
+        when:
+        def results = group.executeInCompletionOrder(tasks, 3).collect(Collectors.toList())
+
+        then:
+        results == [0, 150, 300]
+    }
+
+    def "tasks are only executed while results are outstanding"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService)
+        def pulled = new AtomicInteger()
+        def tasks = IntStream.range(0, 1000).peek({ pulled.incrementAndGet() }).mapToObj({ int n -> return { n } as Callable<Integer> })
+
+        when:
+        def stream = group.executeInCompletionOrder(tasks, 10)
+        def count = stream.limit(5).count()
+        stream.close()
+
+        then:
+        count == 5
+        pulled.get() <= 15
+    }
+
+    def "results are passed to the consumer"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService, 4)
+        def results = Collections.synchronizedList([])
+
+        when:
+        group.executeInCompletionOrder(IntStream.range(0, 100).mapToObj({ int n -> return { n } as Callable<Integer> }), 8, { results << it })
+
+        then:
+        results as Set == (0..99) as Set
+    }
+
+    def "task failure fails the result stream"() {
+        given:
+        def group = new AsyncExecutionGroup(executorService)
+        def tasks = IntStream.range(0, 10).mapToObj({ int n ->
+            return {
+                if (n == 3) {
+                    throw new IllegalStateException("failed")
+                }
+                Thread.sleep(1000)
+                n
+            } as Callable<Integer>
+        })
+
+        when:
+        long start = System.nanoTime()
+        group.executeInCompletionOrder(tasks, 10).count()
+
+        then:
+        thrown(IllegalStateException)
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000
+    }
+}
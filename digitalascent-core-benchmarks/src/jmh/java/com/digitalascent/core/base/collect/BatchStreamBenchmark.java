@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of consuming a complete batch loading stream (one operation), for synchronous and queued (asynchronous)
+ * streams, over synthetic pages with configurable page size, per-page fetch latency and per-element consumer cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BatchStreamBenchmark {
+
+    @Param({"100"})
+    public int pages;
+
+    @Param({"10", "1000"})
+    public int pageSize;
+
+    @Param({"0", "100"})
+    public int pageLatencyMicros;
+
+    // Blackhole.consumeCPU tokens spent per element
+    @Param({"0", "100"})
+    public int consumerCost;
+
+    @Param({"5"})
+    public int queueSize;
+
+    private SyntheticBatchSupplier batchSupplier;
+
+    @Setup
+    public void setup() {
+        batchSupplier = new SyntheticBatchSupplier(pages, pageSize, TimeUnit.MICROSECONDS.toNanos(pageLatencyMicros));
+    }
+
+    @Benchmark
+    public void batchLoadingStream(Blackhole blackhole) {
+        consume(MoreStreams.batchLoadingStream(batchSupplier), blackhole);
+    }
+
+    @Benchmark
+    public void queuedBatchLoadingStream(Blackhole blackhole) {
+        consume(MoreStreams.queuedBatchLoadingStream(batchSupplier, queueSize), blackhole);
+    }
+
+    @Benchmark
+    public void queuedBatchLoadingStreamSharedExecutor(Blackhole blackhole) {
+        consume(MoreStreams.queuedBatchLoadingStream(batchSupplier, queueSize, BatchProducerExecutors.shared()), blackhole);
+    }
+
+    private void consume(Stream<Integer> stream, Blackhole blackhole) {
+        try (Stream<Integer> elements = stream) {
+            elements.forEach(element -> {
+                Blackhole.consumeCPU(consumerCost);
+                blackhole.consume(element);
+            });
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Throughput of consuming all responses (one operation) from a ContinuationTokenSpliterator, with synthetic responses
+ * completed asynchronously after a configurable latency, and configurable per-element consumer cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ContinuationTokenSpliteratorBenchmark {
+
+    @Param({"100"})
+    public int pages;
+
+    @Param({"10", "1000"})
+    public int pageSize;
+
+    @Param({"0", "100"})
+    public int pageLatencyMicros;
+
+    // Blackhole.consumeCPU tokens spent per element
+    @Param({"0", "100"})
+    public int consumerCost;
+
+    @Param({"5"})
+    public int queueSize;
+
+    private SyntheticBatchSupplier batchSupplier;
+    private ExecutorService responseExecutor;
+
+    @Setup
+    public void setup() {
+        batchSupplier = new SyntheticBatchSupplier(pages, pageSize, TimeUnit.MICROSECONDS.toNanos(pageLatencyMicros));
+        responseExecutor = Executors.newCachedThreadPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        responseExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void continuationTokenSpliterator(Blackhole blackhole) {
+        ContinuationTokenSpliterator<Batch<Integer>> spliterator = new ContinuationTokenSpliterator<>(previousResponse -> {
+            if (previousResponse != null && previousResponse.getNextToken() == null) {
+                return null;
+            }
+            String nextToken = previousResponse == null ? null : previousResponse.getNextToken();
+            return CompletableFuture.supplyAsync(() -> batchSupplier.nextBatch(nextToken), responseExecutor);
+        }, queueSize);
+
+        try (Stream<CompletableFuture<Batch<Integer>>> responses = StreamSupport.stream(spliterator, false).onClose(spliterator::close)) {
+            responses.map(CompletableFuture::join)
+                    .flatMap(batch -> StreamSupport.stream(batch.getIterable().spliterator(), false))
+                    .forEach(element -> {
+                        Blackhole.consumeCPU(consumerCost);
+                        blackhole.consume(element);
+                    });
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of handing off pages from a producer thread to a consumer through a QueueSpliterator (one operation
+ * transfers all pages), isolating the cost of the queue from page loading and element processing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class QueueSpliteratorBenchmark {
+
+    @Param({"ArrayBlockingQueue", "SpscBlockingQueue"})
+    public String queueType;
+
+    @Param({"10000"})
+    public int pages;
+
+    @Param({"5"})
+    public int queueSize;
+
+    private final List<Integer> page = ImmutableList.of(1);
+    private final List<Integer> poison = new ArrayList<>();
+    private ExecutorService producerExecutor;
+
+    @Setup
+    public void setup() {
+        producerExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        producerExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void transferPages(Blackhole blackhole) {
+        BlockingQueue<List<Integer>> queue = "SpscBlockingQueue".equals(queueType) ? new SpscBlockingQueue<>(queueSize) : new ArrayBlockingQueue<>(queueSize);
+        Future<?> producerFuture = producerExecutor.submit(() -> {
+            for (int i = 0; i < pages; i++) {
+                queue.put(page);
+            }
+            queue.put(poison);
+            return null;
+        });
+
+        QueueSpliterator<List<Integer>> spliterator = new QueueSpliterator<>(queue, poison, producerFuture);
+        spliterator.forEachRemaining(blackhole::consume);
+    }
+}
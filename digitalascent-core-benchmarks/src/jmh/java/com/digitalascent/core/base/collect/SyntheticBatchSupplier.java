@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalascent.core.base.collect;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Supplier of a fixed number of identical pages, each taking a simulated latency to fetch.  Pages and tokens are
+ * pre-allocated, so that allocations measured by benchmarks are those of the stream machinery.
+ */
+final class SyntheticBatchSupplier implements BatchSupplier<Integer> {
+    private final ImmutableList<Integer> page;
+    private final String[] tokens;
+    private final long pageLatencyNanos;
+
+    SyntheticBatchSupplier(int pages, int pageSize, long pageLatencyNanos) {
+        checkArgument(pages > 0, "pages must be > 0 : %s", pages);
+        checkArgument(pageSize > 0, "pageSize must be > 0 : %s", pageSize);
+        checkArgument(pageLatencyNanos >= 0, "pageLatencyNanos must be >= 0 : %s", pageLatencyNanos);
+
+        ImmutableList.Builder<Integer> pageBuilder = ImmutableList.builder();
+        for (int i = 0; i < pageSize; i++) {
+            pageBuilder.add(i);
+        }
+        this.page = pageBuilder.build();
+
+        // token for page n is tokens[n]; the last page has no next token
+        this.tokens = new String[pages];
+        for (int i = 1; i < pages; i++) {
+            tokens[i] = Integer.toString(i);
+        }
+        this.pageLatencyNanos = pageLatencyNanos;
+    }
+
+    @Override
+    public Batch<Integer> nextBatch(@Nullable String nextBatchToken) {
+        int pageIndex = nextBatchToken == null ? 0 : Integer.parseInt(nextBatchToken);
+        simulateLatency(pageLatencyNanos);
+        return new Batch<>(pageIndex + 1 < tokens.length ? tokens[pageIndex + 1] : null, page);
+    }
+
+    /**
+     * Simulates IO latency without occupying a CPU
+     */
+    static void simulateLatency(long latencyNanos) {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+}